@@ -0,0 +1,54 @@
+package io.github.spigotcvn.remapper.benchmark;
+
+import io.github.spigotcvn.remapper.util.JarUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Unpacking and repacking the server sized jar, as done around the remap steps.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class JarUtilBenchmark {
+    private File dir;
+    private SyntheticData data;
+    private File unpacked;
+    private File repacked;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        dir = Files.createTempDirectory("cvn-jmh-jarutil").toFile();
+        data = SyntheticData.generate(dir);
+        unpacked = new File(dir, "unpacked");
+        repacked = new File(dir, "repacked.jar");
+    }
+
+    @Setup(Level.Invocation)
+    public void unpack() {
+        // repackJar deletes the directory it packed, so every invocation starts from a fresh copy
+        SyntheticData.delete(unpacked);
+        JarUtil.copyJarContents(data.serverJar, unpacked);
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() {
+        SyntheticData.delete(dir);
+    }
+
+    @Benchmark
+    public void copyJarContents() {
+        File target = new File(dir, "copied");
+        JarUtil.copyJarContents(data.serverJar, target);
+        SyntheticData.delete(target);
+    }
+
+    @Benchmark
+    public void repackJar() throws IOException {
+        JarUtil.repackJar(repacked, unpacked);
+    }
+}
@@ -0,0 +1,101 @@
+package io.github.spigotcvn.remapper.benchmark;
+
+import io.github.spigotcvn.remapper.util.MapUtil;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Mapping generation for versions before 1.17, which goes through the BuildTools style {@link MapUtil}.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class MapUtilBenchmark {
+    private File dir;
+    private SyntheticData data;
+    private File memberMappings;
+    private File output;
+
+    private Map<String, String> obfToSpigot;
+    private Map<String, String> spigotToObf;
+
+    private MapUtil loaded;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        dir = Files.createTempDirectory("cvn-jmh-maputil").toFile();
+        data = SyntheticData.generate(dir);
+        memberMappings = new File(dir, "members.csrg");
+        output = new File(dir, "output.csrg");
+
+        MapUtil mapUtil = new MapUtil();
+        mapUtil.loadBuk(data.spigotClassMappings);
+        mapUtil.makeFieldMaps(data.mojangMappings, memberMappings, true);
+
+        obfToSpigot = new HashMap<>();
+        spigotToObf = new HashMap<>();
+        for (String line : Files.readAllLines(data.spigotClassMappings.toPath())) {
+            if (line.startsWith("#")) continue;
+            String[] split = line.split(" ");
+            obfToSpigot.put(split[0], split[1]);
+            spigotToObf.put(split[1], split[0]);
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void load() throws IOException {
+        loaded = new MapUtil();
+        loaded.loadBuk(data.spigotClassMappings);
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() {
+        SyntheticData.delete(dir);
+    }
+
+    @Benchmark
+    public MapUtil loadBuk() throws IOException {
+        MapUtil mapUtil = new MapUtil();
+        mapUtil.loadBuk(data.spigotClassMappings);
+        return mapUtil;
+    }
+
+    @Benchmark
+    public void makeFieldMaps() throws IOException {
+        loaded.makeFieldMaps(data.mojangMappings, output, false);
+    }
+
+    @Benchmark
+    public void makeFieldMapsWithMethods() throws IOException {
+        loaded.makeFieldMaps(data.mojangMappings, output, true);
+    }
+
+    @Benchmark
+    public void makeCombinedMaps() throws IOException {
+        loaded.makeCombinedMaps(output, memberMappings);
+    }
+
+    @Benchmark
+    public void toObf(Blackhole blackhole) {
+        List<String> descriptors = data.spigotDescriptors;
+        for (String descriptor : descriptors) {
+            blackhole.consume(MapUtil.toObf(descriptor, spigotToObf));
+        }
+    }
+
+    @Benchmark
+    public void deobfClass(Blackhole blackhole) {
+        List<String> classes = data.obfuscatedClasses;
+        for (String obf : classes) {
+            blackhole.consume(MapUtil.deobfClass(obf, obfToSpigot));
+        }
+    }
+}
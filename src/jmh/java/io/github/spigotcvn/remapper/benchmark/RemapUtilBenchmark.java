@@ -0,0 +1,60 @@
+package io.github.spigotcvn.remapper.benchmark;
+
+import io.github.spigotcvn.remapper.util.RemapOptions;
+import io.github.spigotcvn.remapper.util.RemapUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The three hops a mojang mapped plugin goes through: mojang to obfuscated, obfuscated to spigot
+ * and spigot to intermediary. Every hop starts from the output of the one before, prepared once.
+ * <p>
+ * The intermediary hop runs without the class cache and hierarchy index, like a clean build.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class RemapUtilBenchmark {
+    private File dir;
+    private SyntheticData data;
+    private File obfuscatedJar;
+    private File spigotJar;
+    private File output;
+
+    @Setup(Level.Trial)
+    public void generate() throws IOException {
+        dir = Files.createTempDirectory("cvn-jmh-remaputil").toFile();
+        data = SyntheticData.generate(dir);
+        obfuscatedJar = new File(dir, "plugin-obfuscated.jar");
+        spigotJar = new File(dir, "plugin-spigot.jar");
+        output = new File(dir, "output.jar");
+
+        RemapUtil.remapJarToObfuscated(data.mojangMappings, data.pluginJar, obfuscatedJar);
+        RemapUtil.remapJarToSpigotClass(data.spigotClassMappings, obfuscatedJar, spigotJar);
+    }
+
+    @TearDown(Level.Trial)
+    public void delete() {
+        SyntheticData.delete(dir);
+    }
+
+    @Benchmark
+    public void remapJarToObfuscated() throws IOException {
+        RemapUtil.remapJarToObfuscated(data.mojangMappings, data.pluginJar, output);
+    }
+
+    @Benchmark
+    public void remapJarToSpigotClass() throws IOException {
+        RemapUtil.remapJarToSpigotClass(data.spigotClassMappings, obfuscatedJar, output);
+    }
+
+    @Benchmark
+    public void remapJarToIntermediary() {
+        RemapUtil.remapJarToIntermediary(data.serverJar.toPath(), data.intermediaryMappings,
+                SyntheticData.MINECRAFT_VERSION, spigotJar, output, new RemapOptions());
+    }
+}
@@ -0,0 +1,349 @@
+package io.github.spigotcvn.remapper.benchmark;
+
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.*;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+/**
+ * Generates mappings and jars shaped like the real ones, so the benchmarks don't depend on BuildTools having been run.
+ * <p>
+ * Every class exists in four namespaces: mojang ({@code net/minecraft/world/...}), obfuscated ({@code a}, {@code b}, ...),
+ * spigot ({@code net/minecraft/server/...}, with obfuscated member names) and intermediary ({@code net/minecraft/class_...}).
+ * The sizes default to roughly those of a 1.16 server, the generation is seeded so every run sees the same data.
+ */
+public class SyntheticData {
+    public static final String MINECRAFT_VERSION = "1.16.5";
+
+    private static final String[] PRIMITIVES = {"int", "boolean", "long", "float", "double", "byte", "void"};
+
+    public final File mojangMappings;
+    public final File spigotClassMappings;
+    public final File intermediaryMappings;
+    public final File serverJar;
+    public final File pluginJar;
+    /**
+     * Method descriptors in the spigot namespace, as found in member mappings.
+     */
+    public final List<String> spigotDescriptors = new ArrayList<>();
+    /**
+     * Obfuscated class names, including inner classes.
+     */
+    public final List<String> obfuscatedClasses = new ArrayList<>();
+
+    private final int classCount;
+    private final int fieldsPerClass;
+    private final int methodsPerClass;
+    private final Random random = new Random(0x43564E);
+
+    private final String[] moj;
+    private final String[] obf;
+    private final String[] spigot;
+    private final int[] superClass;
+    private final String[][] fieldTypes;
+    private final String[][] methodArgs;
+    private final String[][] methodReturns;
+
+    private SyntheticData(File dir, int classCount, int fieldsPerClass, int methodsPerClass) {
+        this.classCount = classCount;
+        this.fieldsPerClass = fieldsPerClass;
+        this.methodsPerClass = methodsPerClass;
+
+        this.mojangMappings = new File(dir, "server-" + MINECRAFT_VERSION + "-maps-mojang.txt");
+        this.spigotClassMappings = new File(dir, "bukkit-" + MINECRAFT_VERSION + "-cl.csrg");
+        this.intermediaryMappings = new File(dir, "mappings-" + MINECRAFT_VERSION + "-intermediary.tiny");
+        this.serverJar = new File(dir, "spigot-" + MINECRAFT_VERSION + ".jar");
+        this.pluginJar = new File(dir, "plugin-mojang.jar");
+
+        moj = new String[classCount];
+        obf = new String[classCount];
+        spigot = new String[classCount];
+        superClass = new int[classCount];
+        fieldTypes = new String[classCount][fieldsPerClass];
+        methodArgs = new String[classCount][methodsPerClass];
+        methodReturns = new String[classCount][methodsPerClass];
+    }
+
+    /**
+     * Generates the data with the default sizes.
+     * @param dir The directory to write the files to
+     */
+    public static SyntheticData generate(File dir) throws IOException {
+        return generate(dir, 6000, 6, 10, 300);
+    }
+
+    /**
+     * @param dir             The directory to write the files to
+     * @param classCount      The number of server classes
+     * @param fieldsPerClass  The number of fields of every server class
+     * @param methodsPerClass The number of methods of every server class
+     * @param pluginClasses   The number of classes in the plugin jar
+     */
+    public static SyntheticData generate(File dir, int classCount, int fieldsPerClass, int methodsPerClass,
+                                         int pluginClasses) throws IOException {
+        dir.mkdirs();
+        SyntheticData data = new SyntheticData(dir, classCount, fieldsPerClass, methodsPerClass);
+        data.generateNames();
+        data.writeMojangMappings();
+        data.writeSpigotClassMappings();
+        data.writeIntermediaryMappings();
+        data.writeServerJar();
+        data.writePluginJar(pluginClasses);
+        return data;
+    }
+
+    private void generateNames() {
+        for (int i = 0; i < classCount; i++) {
+            // every tenth class is an inner class of the one before it
+            if (i % 10 == 9) {
+                moj[i] = moj[i - 1] + "$Inner" + i;
+                obf[i] = obf[i - 1] + "$" + obfName(i % 26);
+                spigot[i] = spigot[i - 1] + "$Inner" + i;
+            } else {
+                moj[i] = "net/minecraft/world/level" + (i % 40) + "/Class" + i;
+                obf[i] = obfName(i);
+                spigot[i] = "net/minecraft/server/Class" + i;
+            }
+            obfuscatedClasses.add(obf[i]);
+            superClass[i] = i > 0 && random.nextInt(3) == 0 ? random.nextInt(i) : -1;
+
+            for (int j = 0; j < fieldsPerClass; j++) {
+                fieldTypes[i][j] = randomType(false);
+            }
+            for (int j = 0; j < methodsPerClass; j++) {
+                StringBuilder args = new StringBuilder();
+                int argCount = random.nextInt(4);
+                for (int k = 0; k < argCount; k++) {
+                    if (k > 0) args.append(',');
+                    args.append(randomType(false));
+                }
+                methodArgs[i][j] = args.toString();
+                methodReturns[i][j] = randomType(true);
+            }
+        }
+    }
+
+    private String randomType(boolean allowVoid) {
+        int kind = random.nextInt(10);
+        String type;
+        if (kind < 4) {
+            type = PRIMITIVES[random.nextInt(allowVoid ? PRIMITIVES.length : PRIMITIVES.length - 1)];
+        } else if (kind < 5) {
+            type = "java.lang.String";
+        } else {
+            // refers to another class by its index, resolved per namespace later
+            type = "#" + random.nextInt(classCount);
+        }
+        if (!type.equals("void") && random.nextInt(8) == 0) type += "[]";
+        return type;
+    }
+
+    private void writeMojangMappings() throws IOException {
+        try (PrintWriter out = writer(mojangMappings)) {
+            out.println("# This is a synthetic mappings file, shaped like the mojang ones");
+            for (int i = 0; i < classCount; i++) {
+                out.println(moj[i].replace('/', '.') + " -> " + obf[i].replace('/', '.') + ":");
+                for (int j = 0; j < fieldsPerClass; j++) {
+                    out.println("    " + sourceType(fieldTypes[i][j]) + " field" + j + " -> " + obfName(j));
+                }
+                for (int j = 0; j < methodsPerClass; j++) {
+                    StringBuilder args = new StringBuilder();
+                    for (String arg : split(methodArgs[i][j])) {
+                        if (args.length() > 0) args.append(',');
+                        args.append(sourceType(arg));
+                    }
+                    out.println("    " + (j * 7 + 1) + ":" + (j * 7 + 5) + ":" + sourceType(methodReturns[i][j])
+                            + " method" + j + "(" + args + ") -> " + obfName(fieldsPerClass + j));
+                }
+            }
+        }
+    }
+
+    private void writeSpigotClassMappings() throws IOException {
+        try (PrintWriter out = writer(spigotClassMappings)) {
+            out.println("# This is a synthetic mappings file, shaped like the spigot ones");
+            for (int i = 0; i < classCount; i++) {
+                out.println(obf[i] + " " + spigot[i]);
+            }
+        }
+    }
+
+    private void writeIntermediaryMappings() throws IOException {
+        try (PrintWriter out = writer(intermediaryMappings)) {
+            out.println("v1\tspigot\tintermediary");
+            for (int i = 0; i < classCount; i++) {
+                out.println("CLASS\t" + spigot[i] + "\tnet/minecraft/class_" + i);
+            }
+            for (int i = 0; i < classCount; i++) {
+                for (int j = 0; j < fieldsPerClass; j++) {
+                    out.println("FIELD\t" + spigot[i] + "\t" + descriptor(fieldTypes[i][j], spigot)
+                            + "\t" + obfName(j) + "\tfield_" + i + "_" + j);
+                }
+                for (int j = 0; j < methodsPerClass; j++) {
+                    String desc = methodDescriptor(i, j, spigot);
+                    spigotDescriptors.add(desc);
+                    out.println("METHOD\t" + spigot[i] + "\t" + desc
+                            + "\t" + obfName(fieldsPerClass + j) + "\tmethod_" + i + "_" + j);
+                }
+            }
+        }
+    }
+
+    /**
+     * The spigot mapped server classes, without any code as only the hierarchy and members are ever read.
+     */
+    private void writeServerJar() throws IOException {
+        try (JarOutputStream jar = new JarOutputStream(new BufferedOutputStream(new FileOutputStream(serverJar)))) {
+            for (int i = 0; i < classCount; i++) {
+                ClassWriter writer = new ClassWriter(0);
+                writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, spigot[i], null,
+                        superClass[i] == -1 ? "java/lang/Object" : spigot[superClass[i]], null);
+                for (int j = 0; j < fieldsPerClass; j++) {
+                    writer.visitField(Opcodes.ACC_PUBLIC, obfName(j), descriptor(fieldTypes[i][j], spigot), null, null)
+                            .visitEnd();
+                }
+                for (int j = 0; j < methodsPerClass; j++) {
+                    writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_NATIVE, obfName(fieldsPerClass + j),
+                            methodDescriptor(i, j, spigot), null, null).visitEnd();
+                }
+                writer.visitEnd();
+
+                jar.putNextEntry(new JarEntry(spigot[i] + ".class"));
+                jar.write(writer.toByteArray());
+                jar.closeEntry();
+            }
+        }
+    }
+
+    /**
+     * A mojang mapped plugin, every class extends a server class and calls into a few others.
+     */
+    private void writePluginJar(int pluginClasses) throws IOException {
+        try (JarOutputStream jar = new JarOutputStream(new BufferedOutputStream(new FileOutputStream(pluginJar)))) {
+            jar.putNextEntry(new JarEntry("plugin.yml"));
+            jar.write(("name: SyntheticPlugin\nversion: 1.0\nmain: com.example.plugin.Class0\n")
+                    .getBytes(StandardCharsets.UTF_8));
+            jar.closeEntry();
+
+            for (int p = 0; p < pluginClasses; p++) {
+                String name = "com/example/plugin/Class" + p;
+                int parent = random.nextInt(classCount);
+
+                ClassWriter writer = new ClassWriter(0);
+                writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, moj[parent], null);
+
+                for (int f = 0; f < 4; f++) {
+                    FieldVisitor field = writer.visitField(Opcodes.ACC_PRIVATE, "value" + f,
+                            "L" + moj[random.nextInt(classCount)] + ";", null, null);
+                    field.visitEnd();
+                }
+
+                for (int m = 0; m < 8; m++) {
+                    int target = random.nextInt(classCount);
+                    MethodVisitor method = writer.visitMethod(Opcodes.ACC_PUBLIC, "run" + m,
+                            "(L" + moj[target] + ";)V", null, null);
+                    method.visitCode();
+                    for (int call = 0; call < 6; call++) {
+                        int owner = random.nextInt(classCount);
+                        int member = random.nextInt(methodsPerClass);
+                        method.visitVarInsn(Opcodes.ALOAD, 1);
+                        method.visitMethodInsn(Opcodes.INVOKEVIRTUAL, moj[owner], "method" + member,
+                                methodDescriptor(owner, member, moj), false);
+
+                        int fieldOwner = random.nextInt(classCount);
+                        int field = random.nextInt(fieldsPerClass);
+                        method.visitVarInsn(Opcodes.ALOAD, 1);
+                        method.visitFieldInsn(Opcodes.GETFIELD, moj[fieldOwner], "field" + field,
+                                descriptor(fieldTypes[fieldOwner][field], moj));
+                    }
+                    method.visitInsn(Opcodes.RETURN);
+                    // the code is never run, so the frames and exact stack sizes don't matter
+                    method.visitMaxs(16, 2);
+                    method.visitEnd();
+                }
+                writer.visitEnd();
+
+                jar.putNextEntry(new JarEntry(name + ".class"));
+                jar.write(writer.toByteArray());
+                jar.closeEntry();
+            }
+        }
+    }
+
+    private String methodDescriptor(int owner, int method, String[] namespace) {
+        StringBuilder desc = new StringBuilder("(");
+        for (String arg : split(methodArgs[owner][method])) {
+            desc.append(descriptor(arg, namespace));
+        }
+        return desc.append(')').append(descriptor(methodReturns[owner][method], namespace)).toString();
+    }
+
+    private String descriptor(String type, String[] namespace) {
+        if (type.endsWith("[]")) return "[" + descriptor(type.substring(0, type.length() - 2), namespace);
+        if (type.startsWith("#")) return "L" + namespace[Integer.parseInt(type.substring(1))] + ";";
+        switch (type) {
+            case "int":
+                return "I";
+            case "boolean":
+                return "Z";
+            case "long":
+                return "J";
+            case "float":
+                return "F";
+            case "double":
+                return "D";
+            case "byte":
+                return "B";
+            case "void":
+                return "V";
+            default:
+                return "L" + type.replace('.', '/') + ";";
+        }
+    }
+
+    private String sourceType(String type) {
+        if (type.endsWith("[]")) return sourceType(type.substring(0, type.length() - 2)) + "[]";
+        if (type.startsWith("#")) return moj[Integer.parseInt(type.substring(1))].replace('/', '.');
+        return type;
+    }
+
+    private static List<String> split(String args) {
+        return args.isEmpty() ? Collections.emptyList() : Arrays.asList(args.split(","));
+    }
+
+    /**
+     * Short lowercase names like the obfuscated ones, a to z, then aa, ab and so on.
+     */
+    private static String obfName(int index) {
+        StringBuilder name = new StringBuilder();
+        do {
+            name.insert(0, (char) ('a' + index % 26));
+            index = index / 26 - 1;
+        } while (index >= 0);
+        return name.toString();
+    }
+
+    private static PrintWriter writer(File file) throws IOException {
+        return new PrintWriter(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Deletes the given directory with everything in it.
+     */
+    public static void delete(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                delete(file);
+            }
+        }
+        dir.delete();
+    }
+}
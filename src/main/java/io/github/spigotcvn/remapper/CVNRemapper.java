@@ -1,32 +1,39 @@
 package io.github.spigotcvn.remapper;
 
 import io.github.spigotcvn.remapper.tasks.*;
+import org.gradle.api.NamedDomainObjectProvider;
 import org.gradle.api.Plugin;
 import org.gradle.api.Project;
 import org.gradle.api.Task;
 import org.gradle.api.artifacts.Configuration;
+import org.gradle.api.artifacts.Dependency;
 import org.gradle.api.artifacts.DependencyArtifact;
 import org.gradle.api.artifacts.ExternalModuleDependency;
+import org.gradle.api.file.RegularFile;
+import org.gradle.api.plugins.JavaPluginExtension;
+import org.gradle.api.provider.Provider;
+import org.gradle.api.specs.Spec;
+import org.gradle.api.tasks.TaskProvider;
+import org.gradle.api.tasks.bundling.Jar;
 
 import java.io.*;
 import java.util.*;
 
 public class CVNRemapper implements Plugin<Project> {
     public static final String MAPPINGS_URL = "https://raw.githubusercontent.com/Cross-Version-NMS/CVN-mappings/main/mappings/%s.tiny";
-    public static       String MINECRAFT_VERSION;
-    public static      boolean USES_MOJMAPS = false;
 
     public static final String SPIGOT_GROUP = "org.spigotmc";
     public static final String SPIGOT_ARTIFACT = "spigot";
 
-    Map<String, Task> tasks = new HashMap<>();
-    // file one is from where, file two is where to
-    Map<File, File> filesToMove = new HashMap<>();
+    Map<String, TaskProvider<? extends Task>> tasks = new HashMap<>();
+
+    private CVNRemapperExtension extension;
+    private Provider<String> minecraftVersion;
+    private Provider<Boolean> usesMojmaps;
 
     private File tmpDir;
     private File libsDir;
     private File mappingsDir;
-    private File finalTmpJar;
 
     @Override
     public void apply(Project project) {
@@ -44,33 +51,220 @@ public class CVNRemapper implements Plugin<Project> {
         mappingsDir.getParentFile().mkdirs();
         mappingsDir.mkdir();
 
-        tasks.put("generateMappings", new GenerateMappingsTask().init(this, project));
-        tasks.put("compileDummyJava", new CompileDummyJavaTask().init(this, project));
-        tasks.put("remapJar", new RemapJarTask().init(this, project));
-        tasks.put("moveExternalResources", new MoveExternalResourcesTask().init(this, project));
-        tasks.put("moveJars", new MoveJarsTask().init(this, project));
-    }
+        extension = project.getExtensions().create("cvnRemapper", CVNRemapperExtension.class);
+        extension.getSinglePassRemap().convention(false);
+        extension.getKeepSpigotJar().convention(true);
+        extension.getIncrementalRemap().convention(true);
+        extension.getTargetVersions().convention(Collections.emptyList());
+        extension.getMappingsUrl().convention(MAPPINGS_URL);
+        extension.getIncludePackages().convention(Collections.emptyList());
+        extension.getExcludePackages().convention(Collections.emptyList());
+        extension.getCopyUnmappedClasses().convention(false);
 
-    public static void detectMinecraftVersion(Project project) {
-        Configuration spigotConfiguration = project.getConfigurations().getByName("compileOnly");
+        // only resolved once the task graph is built, the configuration cache stores the values themselves
+        NamedDomainObjectProvider<Configuration> compileOnly = project.getConfigurations().named("compileOnly");
+        minecraftVersion = compileOnly.map(CVNRemapper::detectMinecraftVersion);
+        usesMojmaps = compileOnly.map(CVNRemapper::detectUsesMojmaps);
 
-        spigotConfiguration.getDependencies().forEach(dependency -> {
-            if (dependency.getGroup() == null || dependency.getVersion() == null) return;
+        Provider<RemapperService> remapperService = project.getGradle().getSharedServices()
+                .registerIfAbsent("cvnRemapper", RemapperService.class, spec -> {});
 
-            if (dependency.getGroup().equals(SPIGOT_GROUP) && dependency.getName().equals(SPIGOT_ARTIFACT)) {
-                MINECRAFT_VERSION = dependency.getVersion().replace("-R0.1-SNAPSHOT", "");
+        Provider<Integer> javaVersion = project.provider(() -> Integer.parseInt(project.getExtensions()
+                .getByType(JavaPluginExtension.class)
+                .getTargetCompatibility()
+                .getMajorVersion()));
+        TaskProvider<CompileDummyJavaTask> compileDummyJava = project.getTasks().register("compileDummyJava", CompileDummyJavaTask.class, task -> {
+            task.getJavaVersion().set(javaVersion);
+            task.getDummyClass().set(new File(tmpDir, "DummyJavaPlugin.class"));
+            task.getReportFile().set(reportFile(project, task));
+        });
+        project.getTasks().named("classes").configure(task -> task.finalizedBy(compileDummyJava));
+        tasks.put("compileDummyJava", compileDummyJava);
+
+        TaskProvider<MoveExternalResourcesTask> moveExternalResources = createRemapTasks(project, "", "",
+                minecraftVersion, usesMojmaps, remapperService, compileDummyJava);
+        TaskProvider<RemapJarTask> remapJar = project.getTasks().named("remapJar", RemapJarTask.class);
+
+        TaskProvider<MoveJarsTask> moveJars = project.getTasks().register("moveJars", MoveJarsTask.class, task -> {
+            task.getJars().from(
+                    moveExternalResources.flatMap(MoveExternalResourcesTask::getResultJar),
+                    remapJar.flatMap(RemapJarTask::getOriginalJar),
+                    remapJar.flatMap(RemapJarTask::getSpigotJar)
+            );
+            task.getDestinationDir().set(libsDir);
+            task.getMovedJars().from(task.getJars().getElements().map(jars -> {
+                List<File> movedJars = new ArrayList<>();
+                jars.forEach(jar -> movedJars.add(new File(libsDir, jar.getAsFile().getName())));
+                return movedJars;
+            }));
+            task.getReportFile().set(reportFile(project, task));
+        });
+        moveExternalResources.configure(task -> task.finalizedBy(moveJars));
+        tasks.put("moveJars", moveJars);
 
-                Set<DependencyArtifact> artifacts = ((ExternalModuleDependency) dependency).getArtifacts();
-                String classifier =
-                        artifacts.iterator().hasNext() ? artifacts.iterator().next().getClassifier() : null;
-                USES_MOJMAPS = Objects.equals(classifier, "remapped-mojang");
+        project.afterEvaluate(p -> {
+            for (String targetVersion : extension.getTargetVersions().get()) {
+                String taskSuffix = "_" + targetVersion.replace('.', '_');
+                TaskProvider<MoveExternalResourcesTask> versionResources = createRemapTasks(project,
+                        taskSuffix, "-" + targetVersion,
+                        project.provider(() -> targetVersion), usesMojmaps, remapperService, compileDummyJava);
+                // the detected version isn't known before the task graph is built, so a target version that's
+                // the same as it is skipped when the tasks run instead of not being registered
+                Spec<Task> notDetectedVersion = new NotDetectedVersion(minecraftVersion, targetVersion);
+                for (String name : Arrays.asList("generateMappings", "remapJar", "moveExternalResources")) {
+                    project.getTasks().named(name + taskSuffix).configure(task -> task.onlyIf(notDetectedVersion));
+                }
+                versionResources.configure(task -> task.finalizedBy(moveJars));
+                moveJars.configure(task -> task.getJars().from(versionResources.flatMap(MoveExternalResourcesTask::getResultJar)));
             }
         });
-        if (MINECRAFT_VERSION == null) {
+    }
+
+    /**
+     * Whether a target version differs from the version the plugin is compiled against, which is already remapped.
+     * A class rather than a lambda, so the configuration cache can store it.
+     */
+    private static class NotDetectedVersion implements Spec<Task> {
+        private final Provider<String> detectedVersion;
+        private final String targetVersion;
+
+        private NotDetectedVersion(Provider<String> detectedVersion, String targetVersion) {
+            this.detectedVersion = detectedVersion;
+            this.targetVersion = targetVersion;
+        }
+
+        @Override
+        public boolean isSatisfiedBy(Task task) {
+            return !targetVersion.equals(detectedVersion.get());
+        }
+    }
+
+    /**
+     * Registers the tasks that remap the plugin jar against a single minecraft version.
+     * @param taskSuffix    Appended to the task names, empty for the version the plugin is compiled against
+     * @param fileSuffix    Appended to the jar names, empty for the version the plugin is compiled against
+     * @return The last task of the chain, which produces the finished jar
+     */
+    private TaskProvider<MoveExternalResourcesTask> createRemapTasks(Project project, String taskSuffix, String fileSuffix,
+                                                                     Provider<String> minecraftVersion, Provider<Boolean> usesMojmaps,
+                                                                     Provider<RemapperService> remapperService,
+                                                                     TaskProvider<CompileDummyJavaTask> compileDummyJava) {
+        TaskProvider<Jar> jarTask = project.getTasks().named("jar", Jar.class);
+        Provider<String> archiveName = jarTask.flatMap(Jar::getArchiveFileName)
+                .map(name -> name.replace(".jar", fileSuffix + ".jar"));
+        File sharedMappingsDir = getSharedMappingsDir(project);
+
+        TaskProvider<GenerateMappingsTask> generateMappings = project.getTasks().register("generateMappings" + taskSuffix, GenerateMappingsTask.class, task -> {
+            task.getMinecraftVersion().set(minecraftVersion);
+            task.getMappingsUrl().set(extension.getMappingsUrl());
+            task.getMappingsDir().set(sharedMappingsDir);
+            task.getMappingsFile().set(project.getLayout().file(minecraftVersion.map(version ->
+                    new File(mappingsDir, "mappings-" + version + "-intermediary.tiny"))));
+            task.getReportFile().set(reportFile(project, task));
+        });
+        tasks.put(generateMappings.getName(), generateMappings);
+
+        TaskProvider<RemapJarTask> remapJar = project.getTasks().register("remapJar" + taskSuffix, RemapJarTask.class, task -> {
+            task.getInputJar().set(jarTask.flatMap(Jar::getArchiveFile));
+            task.getMappingsFile().set(generateMappings.flatMap(GenerateMappingsTask::getMappingsFile));
+            task.getServerFiles().from(minecraftVersion.map(version -> Arrays.asList(
+                    RemapJarTask.getMojangMappings(version),
+                    RemapJarTask.getSpigotMappings(version),
+                    RemapJarTask.getServerJar(version),
+                    RemapJarTask.getMojangServerJar(version)
+            )));
+            task.getMinecraftVersion().set(minecraftVersion);
+            task.getUsesMojmaps().set(usesMojmaps);
+            task.getSinglePassRemap().set(extension.getSinglePassRemap());
+            task.getKeepSpigotJar().set(extension.getKeepSpigotJar());
+            task.getIncludePackages().set(extension.getIncludePackages());
+            task.getExcludePackages().set(extension.getExcludePackages());
+            task.getCopyUnmappedClasses().set(extension.getCopyUnmappedClasses());
+            task.getClassCacheDir().set(extension.getIncrementalRemap().flatMap(incremental -> incremental
+                    ? project.getLayout().getBuildDirectory().dir("cvn-cache/classes" + fileSuffix)
+                    : project.getObjects().directoryProperty()));
+            task.getHierarchyIndexDir().set(project.getLayout().getBuildDirectory().dir("cvn-cache/hierarchy"));
+            task.getRemapperService().set(remapperService);
+            task.usesService(remapperService);
+
+            task.getOriginalJar().set(tmpFile(project, archiveName, "-original.jar"));
+            task.getIntermediaryJar().set(tmpFile(project, archiveName, "-intermediary.jar"));
+            task.getSpigotJar().set(usesMojmaps.zip(extension.getKeepSpigotJar(), (mojmaps, keep) -> mojmaps && keep)
+                    .flatMap(keep -> keep
+                            ? tmpFile(project, archiveName, "-spigot.jar")
+                            : project.getObjects().fileProperty()));
+            task.getReportFile().set(reportFile(project, task));
+        });
+        // it always runs after the Jar task
+        jarTask.configure(task -> task.finalizedBy(remapJar));
+        tasks.put(remapJar.getName(), remapJar);
+
+        TaskProvider<MoveExternalResourcesTask> moveExternalResources = project.getTasks().register("moveExternalResources" + taskSuffix, MoveExternalResourcesTask.class, task -> {
+            task.getInputJar().set(remapJar.flatMap(RemapJarTask::getIntermediaryJar));
+            task.getDummyClass().set(compileDummyJava.flatMap(CompileDummyJavaTask::getDummyClass));
+            // named apart from the jar task's output, which remapJar reads and must not be overwritten
+            task.getResultJar().set(tmpFile(project, archiveName, "-cvn.jar"));
+            task.getReportFile().set(reportFile(project, task));
+        });
+        remapJar.configure(task -> task.finalizedBy(moveExternalResources));
+        tasks.put(moveExternalResources.getName(), moveExternalResources);
+
+        return moveExternalResources;
+    }
+
+    /**
+     * The mappings store in the Gradle user home, shared by every project that is built on this machine.
+     */
+    public static File getSharedMappingsDir(Project project) {
+        return new File(project.getGradle().getGradleUserHomeDir(), "caches/cvn-remapper/mappings");
+    }
+
+    private Provider<RegularFile> reportFile(Project project, Task task) {
+        return project.getLayout().getBuildDirectory().file("reports/cvn-remapper/" + task.getName() + ".json");
+    }
+
+    private Provider<RegularFile> tmpFile(Project project, Provider<String> archiveName, String suffix) {
+        return project.getLayout().file(archiveName.map(name -> new File(tmpDir, name.replace(".jar", suffix))));
+    }
+
+    /**
+     * @param configuration The configuration the spigot dependency is declared in, usually compileOnly
+     * @return The minecraft version of the spigot dependency, e.g. {@code 1.19.4}
+     */
+    public static String detectMinecraftVersion(Configuration configuration) {
+        return findSpigotDependency(configuration).getVersion().replace("-R0.1-SNAPSHOT", "");
+    }
+
+    /**
+     * @param configuration The configuration the spigot dependency is declared in, usually compileOnly
+     * @return Whether the spigot dependency is the mojang mapped one
+     */
+    public static boolean detectUsesMojmaps(Configuration configuration) {
+        Set<DependencyArtifact> artifacts = findSpigotDependency(configuration).getArtifacts();
+        String classifier =
+                artifacts.iterator().hasNext() ? artifacts.iterator().next().getClassifier() : null;
+        return Objects.equals(classifier, "remapped-mojang");
+    }
+
+    private static ExternalModuleDependency findSpigotDependency(Configuration configuration) {
+        ExternalModuleDependency spigot = null;
+        for (Dependency dependency : configuration.getDependencies()) {
+            if (dependency.getGroup() == null || dependency.getVersion() == null) continue;
+
+            if (dependency.getGroup().equals(SPIGOT_GROUP) && dependency.getName().equals(SPIGOT_ARTIFACT)) {
+                spigot = (ExternalModuleDependency) dependency;
+            }
+        }
+        if (spigot == null) {
             throw new RuntimeException("Could not find the Spigot dependency in the compile configuration\n" +
                     "Please make sure you have the Spigot dependency in your build.gradle like this:\n" +
                     "compileOnly \"org.spigotmc:spigot:1.19.4-R0.1-SMAPSHOT:remapped-mojang\"");
         }
+        return spigot;
+    }
+
+    public CVNRemapperExtension getExtension() {
+        return extension;
     }
 
     public File getTmpDir() {
@@ -85,27 +279,15 @@ public class CVNRemapper implements Plugin<Project> {
         return mappingsDir;
     }
 
-    public Map<String, Task> getTasks() {
+    public Map<String, TaskProvider<? extends Task>> getTasks() {
         return new HashMap<>(tasks);
     }
 
-    public Map<File, File> getFilesToMove() {
-        return new HashMap<>(filesToMove);
-    }
-
-    public void addFileToMove(File fileToMove, File whereToMove) {
-        filesToMove.put(fileToMove, whereToMove);
-    }
-
-    public File getFinalTmpJar() {
-        return finalTmpJar;
-    }
-
-    public void setFinalTmpJar(File finalTmpJar) {
-        this.finalTmpJar = finalTmpJar;
+    public Provider<String> getMinecraftVersion() {
+        return minecraftVersion;
     }
 
-    public boolean getUsesMojmaps() {
-        return USES_MOJMAPS;
+    public Provider<Boolean> getUsesMojmaps() {
+        return usesMojmaps;
     }
 }
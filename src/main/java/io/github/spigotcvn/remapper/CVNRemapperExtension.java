@@ -0,0 +1,50 @@
+package io.github.spigotcvn.remapper;
+
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+
+public abstract class CVNRemapperExtension {
+    /**
+     * Remaps mojang mapped jars straight to intermediary through one composed mapping
+     * instead of writing the official and spigot mapped jars in between.
+     */
+    public abstract Property<Boolean> getSinglePassRemap();
+
+    /**
+     * Whether the spigot mapped jar should still be written next to the intermediary one.
+     */
+    public abstract Property<Boolean> getKeepSpigotJar();
+
+    /**
+     * Whether remapped classes should be cached, so only changed classes are remapped again.
+     */
+    public abstract Property<Boolean> getIncrementalRemap();
+
+    /**
+     * Other minecraft versions the plugin should also be remapped for, next to the one it's compiled against.
+     * Every version gets its own remap tasks, which run at the same time.
+     */
+    public abstract ListProperty<String> getTargetVersions();
+
+    /**
+     * The url the CVN mappings are downloaded from, with {@code %s} in place of the minecraft version.
+     */
+    public abstract Property<String> getMappingsUrl();
+
+    /**
+     * The package prefixes to remap, like {@code com.example.plugin}. Every package is remapped if it's empty.
+     */
+    public abstract ListProperty<String> getIncludePackages();
+
+    /**
+     * The package prefixes that are copied to the remapped jars as they are, like shaded libraries.
+     * They must not refer to minecraft classes.
+     */
+    public abstract ListProperty<String> getExcludePackages();
+
+    /**
+     * Whether classes that don't refer to any minecraft or craftbukkit class are copied to the remapped jars
+     * as they are, instead of going through every remapper. Off by default.
+     */
+    public abstract Property<Boolean> getCopyUnmappedClasses();
+}
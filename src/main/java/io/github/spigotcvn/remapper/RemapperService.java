@@ -0,0 +1,17 @@
+package io.github.spigotcvn.remapper;
+
+import io.github.spigotcvn.remapper.util.MappingStore;
+import org.gradle.api.services.BuildService;
+import org.gradle.api.services.BuildServiceParameters;
+
+/**
+ * Shares parsed mappings and server jar indexes between remaps, and between builds that run in the same daemon.
+ */
+public abstract class RemapperService implements BuildService<BuildServiceParameters.None> {
+    // a build service only lives for a single build, the plugin classes live as long as the daemon keeps them loaded
+    private static final MappingStore STORE = new MappingStore();
+
+    public MappingStore getMappingStore() {
+        return STORE;
+    }
+}
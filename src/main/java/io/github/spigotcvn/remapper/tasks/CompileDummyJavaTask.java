@@ -1,62 +1,100 @@
 package io.github.spigotcvn.remapper.tasks;
 
-import io.github.spigotcvn.remapper.util.Util;
-import io.github.spigotcvn.remapper.CVNRemapper;
-import org.gradle.api.Project;
-import org.gradle.api.Task;
-import org.gradle.api.plugins.JavaPluginExtension;
+import io.github.spigotcvn.remapper.util.StageReport;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.CacheableTask;
+import org.gradle.api.tasks.Input;
+import org.gradle.api.tasks.Internal;
+import org.gradle.api.tasks.OutputFile;
+import org.gradle.api.tasks.TaskAction;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
 
 import java.io.*;
+import java.nio.file.Files;
 
-public class CompileDummyJavaTask implements ITask {
-    Project project;
-
-    @Override
-    public Task init(CVNRemapper plugin, Project project) {
-        this.project = project;
-
-        return project.getTasks().create("compileDummyJava", task -> {
-            project.getTasks().getByName("classes").finalizedBy(task);
-
-            task.doLast(t -> {
-                File tmpJavaFile = new File(plugin.getTmpDir(), "DummyJavaPlugin.java");
-                try(InputStream is = this.getClass().getResourceAsStream("/DummyJavaPlugin.java");
-                    OutputStream os = new FileOutputStream(tmpJavaFile)) {
-                    byte[] buffer = new byte[1024];
-                    int bytesRead;
-                    while((bytesRead = is.read(buffer)) != -1) {
-                        os.write(buffer, 0, bytesRead);
-                    }
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-
-                CVNRemapper.detectMinecraftVersion(project);
-                File spigotJar = new File(
-                        System.getProperty("user.home") +
-                                "/.m2/repository/" +
-                                CVNRemapper.SPIGOT_GROUP.replace(".", "/") +
-                                "/" + CVNRemapper.SPIGOT_ARTIFACT + "-api/" +
-                                CVNRemapper.MINECRAFT_VERSION + "-R0.1-SNAPSHOT/" +
-                                CVNRemapper.SPIGOT_ARTIFACT + "-api-" +
-                                CVNRemapper.MINECRAFT_VERSION + "-R0.1-SNAPSHOT-shaded.jar"
-                );
-
-                System.out.println("Compiling against java " + getJavaVersion());
-                Util.compileJavaFile(
-                        tmpJavaFile.getAbsolutePath(),
-                        plugin.getTmpDir().getAbsolutePath(),
-                        getJavaVersion(),
-                        spigotJar.getAbsolutePath()
-                );
-            });
-        });
+@CacheableTask
+public abstract class CompileDummyJavaTask extends DefaultTask {
+    private static final String JAVA_PLUGIN = "org/bukkit/plugin/java/JavaPlugin";
+
+    /**
+     * The java version the class is written for, e.g. 8 or 17.
+     */
+    @Input
+    public abstract Property<Integer> getJavaVersion();
+
+    /**
+     * The DummyJavaPlugin class, the class is always written next to it.
+     */
+    @OutputFile
+    public abstract RegularFileProperty getDummyClass();
+
+    /**
+     * Where the timings of this task are written to, as JSON.
+     */
+    @Internal
+    public abstract RegularFileProperty getReportFile();
+
+    @TaskAction
+    public void compile() throws IOException {
+        StageReport report = new StageReport().property("task", getName());
+        File dummyClass = getDummyClass().get().getAsFile();
+
+        try (StageReport.Stage stage = report.start("compile-dummy")) {
+            System.out.println("Generating DummyJavaPlugin for java " + getJavaVersion().get());
+            dummyClass.getParentFile().mkdirs();
+            Files.write(dummyClass.toPath(), generateDummyClass(getJavaVersion().get()));
+            stage.wrote(dummyClass).classes(1);
+        }
+
+        if(getReportFile().isPresent()) report.write(getReportFile().get().getAsFile());
     }
 
-    private int getJavaVersion() {
-        return project.getExtensions()
-                .getByType(JavaPluginExtension.class)
-                .getSourceCompatibility()
-                .ordinal() + 1;
+    /**
+     * Writes the bytecode of a plugin that disables itself as soon as it's enabled:
+     * <pre>
+     * public final class DummyJavaPlugin extends JavaPlugin {
+     *     public void onEnable() {
+     *         getServer().getPluginManager().disablePlugin(this);
+     *     }
+     * }
+     * </pre>
+     * @param javaVersion The java version the class file is for
+     * @return The class file
+     */
+    public static byte[] generateDummyClass(int javaVersion) {
+        // class file versions start at 45 for java 1.1, and the java versions before 5 were all 1.x
+        int classVersion = javaVersion <= 1 ? Opcodes.V1_1 : 44 + javaVersion;
+
+        ClassWriter cw = new ClassWriter(ClassWriter.COMPUTE_MAXS);
+        cw.visit(classVersion, Opcodes.ACC_PUBLIC | Opcodes.ACC_FINAL | Opcodes.ACC_SUPER,
+                "DummyJavaPlugin", null, JAVA_PLUGIN, null);
+
+        MethodVisitor init = cw.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null);
+        init.visitCode();
+        init.visitVarInsn(Opcodes.ALOAD, 0);
+        init.visitMethodInsn(Opcodes.INVOKESPECIAL, JAVA_PLUGIN, "<init>", "()V", false);
+        init.visitInsn(Opcodes.RETURN);
+        init.visitMaxs(0, 0);
+        init.visitEnd();
+
+        MethodVisitor onEnable = cw.visitMethod(Opcodes.ACC_PUBLIC, "onEnable", "()V", null, null);
+        onEnable.visitCode();
+        onEnable.visitVarInsn(Opcodes.ALOAD, 0);
+        onEnable.visitMethodInsn(Opcodes.INVOKEVIRTUAL, "DummyJavaPlugin", "getServer", "()Lorg/bukkit/Server;", false);
+        onEnable.visitMethodInsn(Opcodes.INVOKEINTERFACE, "org/bukkit/Server", "getPluginManager",
+                "()Lorg/bukkit/plugin/PluginManager;", true);
+        onEnable.visitVarInsn(Opcodes.ALOAD, 0);
+        onEnable.visitMethodInsn(Opcodes.INVOKEINTERFACE, "org/bukkit/plugin/PluginManager", "disablePlugin",
+                "(Lorg/bukkit/plugin/Plugin;)V", true);
+        onEnable.visitInsn(Opcodes.RETURN);
+        onEnable.visitMaxs(0, 0);
+        onEnable.visitEnd();
+
+        cw.visitEnd();
+        return cw.toByteArray();
     }
 }
@@ -1,101 +1,256 @@
 package io.github.spigotcvn.remapper.tasks;
 
-import io.github.spigotcvn.remapper.CVNRemapper;
+import io.github.spigotcvn.remapper.util.Downloader;
+import io.github.spigotcvn.remapper.util.FileLocks;
+import io.github.spigotcvn.remapper.util.JarUtil;
 import io.github.spigotcvn.remapper.util.MapUtil;
+import io.github.spigotcvn.remapper.util.MappingCache;
 import io.github.spigotcvn.remapper.util.MinecraftVersion;
+import io.github.spigotcvn.remapper.util.StageReport;
+import io.github.spigotcvn.remapper.util.Util;
 import io.github.spigotcvn.merger.MappingMerger;
 import io.github.spigotcvn.merger.mappings.files.CSRGMappingFile;
 import io.github.spigotcvn.merger.mappings.files.TinyMappingFile;
 import io.github.spigotcvn.smdownloader.SpigotMappingsDownloader;
 import io.github.spigotcvn.smdownloader.mappings.MappingFile;
-import org.gradle.api.Project;
+import org.gradle.api.DefaultTask;
 import org.gradle.api.Task;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.specs.Spec;
+import org.gradle.api.tasks.*;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+import org.gradle.workers.WorkerExecutor;
 import org.jetbrains.annotations.NotNull;
 import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 
+import javax.inject.Inject;
 import javax.xml.parsers.DocumentBuilder;
 import javax.xml.parsers.DocumentBuilderFactory;
 import java.io.*;
 import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.stream.Collectors;
 
-public class GenerateMappingsTask implements ITask {
-    private CVNRemapper plugin;
+/**
+ * Not cacheable: whether the output is still current depends on the mappings server, which is asked again
+ * once the downloaded mappings are older than {@link Downloader#REVALIDATE_AFTER}.
+ */
+public abstract class GenerateMappingsTask extends DefaultTask {
+    public GenerateMappingsTask() {
+        // the inputs only name the mappings, a change upstream is noticed by revalidating the download
+        getOutputs().upToDateWhen(new DownloadIsFresh());
+    }
 
-    @Override
-    public Task init(CVNRemapper plugin, Project project) {
-        this.plugin = plugin;
+    /**
+     * A class rather than a lambda, so the configuration cache can store it.
+     */
+    private static class DownloadIsFresh implements Spec<Task> {
+        @Override
+        public boolean isSatisfiedBy(Task task) {
+            GenerateMappingsTask generate = (GenerateMappingsTask) task;
+            try {
+                return Downloader.isFresh(getOriginalMappingFile(generate.getMappingsDir().get().getAsFile(),
+                        generate.getMinecraftVersion().get()), Downloader.REVALIDATE_AFTER);
+            } catch (IOException e) {
+                return false;
+            }
+        }
+    }
 
-        return project.getTasks().create("generateMappings", task -> {
-            task.doLast(task1 -> {
-                CVNRemapper.detectMinecraftVersion(project);
+    @Input
+    public abstract Property<String> getMinecraftVersion();
 
-                try {
-                    generateMappings();
-                } catch (Exception e) {
-                    throw new RuntimeException(e);
-                }
-            });
+    /**
+     * The url the CVN mappings are downloaded from, with {@code %s} in place of the minecraft version.
+     */
+    @Input
+    public abstract Property<String> getMappingsUrl();
+
+    /**
+     * The store the downloaded and generated mappings are shared in, between builds and projects.
+     */
+    @Internal
+    public abstract DirectoryProperty getMappingsDir();
+
+    /**
+     * The final intermediary mappings, going from spigot to intermediary names.
+     */
+    @OutputFile
+    public abstract RegularFileProperty getMappingsFile();
+
+    /**
+     * Where the timings of the download and merge are written to, as JSON.
+     */
+    @Internal
+    public abstract RegularFileProperty getReportFile();
+
+    @Inject
+    public abstract WorkerExecutor getWorkerExecutor();
+
+    @TaskAction
+    public void generateMappings() {
+        // submitted as work, so the mappings of several versions can be generated at the same time
+        getWorkerExecutor().noIsolation().submit(GenerateMappings.class, parameters -> {
+            parameters.getTaskName().set(getName());
+            parameters.getMinecraftVersion().set(getMinecraftVersion());
+            parameters.getMappingsUrl().set(getMappingsUrl());
+            parameters.getMappingsDir().set(getMappingsDir());
+            parameters.getMappingsFile().set(getMappingsFile());
+            parameters.getReportFile().set(getReportFile());
         });
     }
 
-    private void generateMappings() throws Exception {
-        URL url = new URL(String.format(CVNRemapper.MAPPINGS_URL, CVNRemapper.MINECRAFT_VERSION));
-        File originalMappingFile = new File(
-                plugin.getMappingsDir(),
-                "mappings-" + CVNRemapper.MINECRAFT_VERSION + "-intermediary-original.tiny"
-        );
-        File finalMappingFile = new File(
-                plugin.getMappingsDir(),
-                "mappings-" + CVNRemapper.MINECRAFT_VERSION + "-intermediary.tiny"
-        );
-        File spigotMappings = new File(
-                plugin.getMappingsDir(),
-                "spigot-" + CVNRemapper.MINECRAFT_VERSION
-        );
-        File spigotCombinedMappings = new File(
-                spigotMappings,
-                "mappings/bukkit-" + CVNRemapper.MINECRAFT_VERSION + "-combined.csrg"
-        );
-
-        if(!originalMappingFile.exists()) {
-            System.out.println("Downloading mappings " + url + "...");
-            originalMappingFile.getParentFile().mkdirs();
-            originalMappingFile.createNewFile();
+    public interface Parameters extends WorkParameters {
+        Property<String> getTaskName();
 
-            try (InputStream inputStream = url.openStream();
-                 OutputStream outputStream = new FileOutputStream(originalMappingFile)) {
+        Property<String> getMinecraftVersion();
 
-                byte[] buffer = new byte[1024];
-                int bytesRead;
-                while ((bytesRead = inputStream.read(buffer)) != -1) {
-                    outputStream.write(buffer, 0, bytesRead);
-                }
+        Property<String> getMappingsUrl();
+
+        DirectoryProperty getMappingsDir();
+
+        RegularFileProperty getMappingsFile();
+
+        RegularFileProperty getReportFile();
+    }
+
+    public abstract static class GenerateMappings implements WorkAction<Parameters> {
+        @Override
+        public void execute() {
+            try {
+                generateMappings();
+            } catch (Exception e) {
+                throw new RuntimeException(e);
             }
-            System.out.println("Downloaded mappings to: " + originalMappingFile.getAbsolutePath());
         }
 
-        System.out.println("Downloading spigot mappings...");
-        String craftBukkitRevHash;
-        List<MappingFile> spigotMappingFiles;
-        try(SpigotMappingsDownloader smd =
-                    new SpigotMappingsDownloader(spigotMappings, CVNRemapper.MINECRAFT_VERSION)) {
-            spigotMappingFiles = smd.downloadMappings(false);
-            craftBukkitRevHash = smd.getVersionData().getRefs().getCraftBukkit();
+        private void generateMappings() throws Exception {
+            String minecraftVersion = getParameters().getMinecraftVersion().get();
+            File mappingsDir = getParameters().getMappingsDir().get().getAsFile();
+            File finalMappingFile = getParameters().getMappingsFile().get().getAsFile();
+
+            StageReport report = new StageReport()
+                    .property("task", getParameters().getTaskName().get())
+                    .property("minecraftVersion", minecraftVersion);
+
+            // the store is shared by every build on this machine, once a version is generated it's only read
+            // until the downloaded mappings are due to be checked for updates again
+            URL url = new URL(String.format(getParameters().getMappingsUrl().get(), minecraftVersion));
+            File pointerFile = new File(mappingsDir, "mappings-" + minecraftVersion + "-intermediary.current");
+            File sharedMappingFile = readPointer(mappingsDir, pointerFile);
+            if(sharedMappingFile == null || !Downloader.isFresh(getOriginalMappingFile(mappingsDir, minecraftVersion), Downloader.REVALIDATE_AFTER)) {
+                sharedMappingFile = FileLocks.withLock(new File(mappingsDir, minecraftVersion + ".lock"),
+                        () -> generateShared(url, minecraftVersion, mappingsDir, pointerFile, report));
+            } else {
+                System.out.println("Using shared mappings: " + sharedMappingFile.getAbsolutePath());
+            }
+
+            try (StageReport.Stage copy = report.start("copy-mappings")) {
+                // the shared file is named after its content hash, the name of the one that was copied is kept
+                // next to the copy, so it's only replaced when it differs and nothing has to be hashed again
+                File sourceFile = new File(finalMappingFile.getParentFile(), finalMappingFile.getName() + ".source");
+                String copiedFrom = sourceFile.isFile()
+                        ? new String(Files.readAllBytes(sourceFile.toPath()), StandardCharsets.UTF_8).trim() : null;
+                if(!finalMappingFile.exists() || finalMappingFile.length() != sharedMappingFile.length()
+                        || !sharedMappingFile.getName().equals(copiedFrom)) {
+                    finalMappingFile.getParentFile().mkdirs();
+                    Files.copy(sharedMappingFile.toPath(), finalMappingFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    Files.write(sourceFile.toPath(), sharedMappingFile.getName().getBytes(StandardCharsets.UTF_8));
+                    copy.read(sharedMappingFile).wrote(finalMappingFile);
+                }
+
+                File mappingCache = MappingCache.getCacheFile(finalMappingFile, minecraftVersion, "spigot", "intermediary");
+                if(!mappingCache.exists()) {
+                    MappingCache.compile(finalMappingFile, "spigot", "intermediary", mappingCache);
+                    copy.wrote(mappingCache);
+                }
+            }
+
+            if(getParameters().getReportFile().isPresent()) report.write(getParameters().getReportFile().get().getAsFile());
         }
 
-        System.out.println("Downloaded spigot mappings: " + spigotMappingFiles.stream()
-                .map(m -> m.getFile().getAbsolutePath() + " ").collect(Collectors.joining()));
+        /**
+         * Downloads the mappings of a version into the shared store and generates the final mappings from them.
+         * Only called while holding the lock of the version.
+         * @return The generated mappings, named after their content hash
+         */
+        private File generateShared(URL url, String minecraftVersion, File mappingsDir, File pointerFile,
+                                    StageReport report) throws Exception {
+            File originalMappingFile = getOriginalMappingFile(mappingsDir, minecraftVersion);
+            File spigotMappings = new File(
+                    mappingsDir,
+                    "spigot-" + minecraftVersion
+            );
+            File spigotCombinedMappings = new File(
+                    spigotMappings,
+                    "mappings/bukkit-" + minecraftVersion + "-combined.csrg"
+            );
+
+            StageReport.Stage download = report.start("download-mappings");
+            // the intermediary mappings are fetched while the spigot ones are pulled
+            System.out.println("Downloading mappings " + url + "...");
+            CompletableFuture<Boolean> originalDownload = CompletableFuture.supplyAsync(() -> {
+                try {
+                    return Downloader.download(url, originalMappingFile, Downloader.REVALIDATE_AFTER);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+
+            System.out.println("Downloading spigot mappings...");
+            String craftBukkitRevHash;
+            List<MappingFile> spigotMappingFiles;
+            boolean spigotMappingsCached = spigotMappings.exists();
+            try(SpigotMappingsDownloader smd =
+                        new SpigotMappingsDownloader(spigotMappings, minecraftVersion)) {
+                spigotMappingFiles = smd.downloadMappings(false);
+                craftBukkitRevHash = smd.getVersionData().getRefs().getCraftBukkit();
+            }
+
+            System.out.println("Downloaded spigot mappings: " + spigotMappingFiles.stream()
+                    .map(m -> m.getFile().getAbsolutePath() + " ").collect(Collectors.joining()));
+            if(!spigotMappingsCached) {
+                spigotMappingFiles.forEach(m -> download.wrote(m.getFile()));
+            }
+
+            boolean originalChanged;
+            try {
+                originalChanged = originalDownload.join();
+            } catch (CompletionException e) {
+                throw e.getCause() instanceof UncheckedIOException ? ((UncheckedIOException) e.getCause()).getCause() : e;
+            }
+            if(originalChanged) {
+                System.out.println("Downloaded mappings to: " + originalMappingFile.getAbsolutePath());
+                download.wrote(originalMappingFile);
+            }
+            download.close();
 
-        if(!finalMappingFile.exists()) {
+            // another build may have generated them while this one was waiting for the lock
+            File current = readPointer(mappingsDir, pointerFile);
+            if(current != null && !originalChanged) {
+                System.out.println("Using shared mappings: " + current.getAbsolutePath());
+                return current;
+            }
+
+            StageReport.Stage merge = report.start("merge-mappings");
             System.out.println("Generating final mappings...");
+            merge.read(originalMappingFile);
+            spigotMappingFiles.forEach(m -> merge.read(m.getFile()));
             TinyMappingFile original = new TinyMappingFile();
             CSRGMappingFile spigot = new CSRGMappingFile();
             original.loadFromFile(originalMappingFile);
 
-            if(new MinecraftVersion(CVNRemapper.MINECRAFT_VERSION).compareTo(RemapJarTask.FIRST_MOJMAP_VERSION) < 0) {
+            if(new MinecraftVersion(minecraftVersion).compareTo(RemapJarTask.FIRST_MOJMAP_VERSION) < 0) {
                 System.out.println("Pre mojmaps version detected. Combining spigot mappings...");
                 if(!spigotCombinedMappings.exists()) {
                     MapUtil mapUtil = new MapUtil();
@@ -117,29 +272,13 @@ public class GenerateMappingsTask implements ITask {
                         .get().getFile());
             }
 
+            // every stage works on the same in-memory mappings, they are only written once at the end
             MappingMerger.mergeTinyWithCSRG(original, spigot, "spigot");
-            original.saveToFile(finalMappingFile);
-            original.loadFromFile(finalMappingFile);
 
-            if(new MinecraftVersion(CVNRemapper.MINECRAFT_VERSION).compareTo(RemapJarTask.FIRST_MOJMAP_VERSION) < 0) {
+            if(new MinecraftVersion(minecraftVersion).compareTo(RemapJarTask.FIRST_MOJMAP_VERSION) < 0) {
                 CSRGMappingFile packageMappings = new CSRGMappingFile();
-                System.out.println("Starting to pull the craftbukkit repo...");
-                File cbPom = getCBPom(craftBukkitRevHash);
-                System.out.println("Finished pulling the craftbukkit repo!");
-                System.out.println("Finding cb notation...");
-                
-                DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
-                DocumentBuilder db = dbf.newDocumentBuilder();
-                Document doc = db.parse(cbPom);
-                doc.getDocumentElement().normalize();
-
-                // located in: project -> properties -> minecraft_version
-                String cbNotation;
-
-                Element properties = (Element) doc.getElementsByTagName("properties").item(0);
-                cbNotation = properties.getElementsByTagName("minecraft_version").item(0).getTextContent();
-                
-                System.out.println("CB Notation found successfully!");
+                String cbNotation = getCBNotation(mappingsDir, minecraftVersion, craftBukkitRevHash);
+                System.out.println("CB Notation found successfully: v" + cbNotation);
 
                 String nmsPackage = "net/minecraft/server/v" + cbNotation + "/";
 
@@ -149,26 +288,104 @@ public class GenerateMappingsTask implements ITask {
                 ));
 
                 MappingMerger.applyPackageMapping(original, packageMappings, true);
-                original.saveToFile(finalMappingFile);
-                original.loadFromFile(finalMappingFile);
-                
+            
                 System.out.println("Package mappings applied!");
             }
 
             MappingMerger.replaceOriginalNamespace(original, "spigot");
-            original.saveToFile(finalMappingFile);
-            System.out.println("Finished generating final mappings, saved to: " + finalMappingFile.getAbsolutePath());
+            File tmpFile = new File(mappingsDir, "mappings-" + minecraftVersion + "-intermediary.tiny.tmp");
+            original.saveToFile(tmpFile);
+
+            // keyed by its content, so a build that still reads older mappings is never pulled from under
+            String hash = Util.hashFile(tmpFile).substring(0, 16);
+            File sharedMappingFile = new File(mappingsDir, "mappings-" + minecraftVersion + "-intermediary-" + hash + ".tiny");
+            Files.move(tmpFile.toPath(), sharedMappingFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            merge.wrote(sharedMappingFile);
+
+            File tmpPointer = new File(mappingsDir, pointerFile.getName() + ".tmp");
+            Files.write(tmpPointer.toPath(), sharedMappingFile.getName().getBytes(StandardCharsets.UTF_8));
+            Files.move(tmpPointer.toPath(), pointerFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            merge.close();
+
+            System.out.println("Finished generating final mappings, saved to: " + sharedMappingFile.getAbsolutePath());
+            return sharedMappingFile;
+        }
+
+        private static File readPointer(File mappingsDir, File pointerFile) throws IOException {
+            if(!pointerFile.isFile()) return null;
+            File sharedMappingFile = new File(mappingsDir,
+                    new String(Files.readAllBytes(pointerFile.toPath()), StandardCharsets.UTF_8).trim());
+            return sharedMappingFile.isFile() ? sharedMappingFile : null;
         }
     }
 
-    private @NotNull File getCBPom(String craftBukkitRevHash) {
+    private static File getOriginalMappingFile(File mappingsDir, String minecraftVersion) {
+        return new File(mappingsDir, "mappings-" + minecraftVersion + "-intermediary-original.tiny");
+    }
+
+    /**
+     * Finds the CraftBukkit package notation of a version, e.g. {@code 1_16_R3}.
+     * It's read from the local server jar or the bundled table first, the CraftBukkit repository is only cloned
+     * for versions neither of them know, and what's read from it is kept next to the shared mappings.
+     */
+    private static String getCBNotation(File mappingsDir, String minecraftVersion, String craftBukkitRevHash) throws Exception {
+        File serverJar = RemapJarTask.getServerJar(minecraftVersion);
+        if(serverJar.exists()) {
+            String cbNotation = JarUtil.getCBNotation(serverJar);
+            if(cbNotation != null) return cbNotation;
+        }
+
+        Properties notations = new Properties();
+        try(InputStream is = GenerateMappingsTask.class.getResourceAsStream("/cb-notations.properties")) {
+            notations.load(is);
+        }
+        File cachedNotations = new File(mappingsDir, "cb-notations.properties");
+        if(cachedNotations.exists()) {
+            try(InputStream is = new FileInputStream(cachedNotations)) {
+                notations.load(is);
+            }
+        }
+        String cbNotation = notations.getProperty(minecraftVersion);
+        if(cbNotation != null) return cbNotation;
+
+        System.out.println("Starting to pull the craftbukkit repo...");
+        File cbPom = getCBPom(mappingsDir, minecraftVersion, craftBukkitRevHash);
+        System.out.println("Finished pulling the craftbukkit repo!");
+
+        DocumentBuilderFactory dbf = DocumentBuilderFactory.newInstance();
+        DocumentBuilder db = dbf.newDocumentBuilder();
+        Document doc = db.parse(cbPom);
+        doc.getDocumentElement().normalize();
+
+        // located in: project -> properties -> minecraft_version
+        Element properties = (Element) doc.getElementsByTagName("properties").item(0);
+        String pomNotation = properties.getElementsByTagName("minecraft_version").item(0).getTextContent();
+
+        // only called while holding the lock of the version, other versions may add theirs at the same time
+        FileLocks.withLock(new File(mappingsDir, "cb-notations.lock"), () -> {
+            Properties cached = new Properties();
+            if(cachedNotations.exists()) {
+                try(InputStream is = new FileInputStream(cachedNotations)) {
+                    cached.load(is);
+                }
+            }
+            cached.setProperty(minecraftVersion, pomNotation);
+            try(OutputStream os = new FileOutputStream(cachedNotations)) {
+                cached.store(os, "CraftBukkit package notations read from the CraftBukkit repository");
+            }
+            return null;
+        });
+        return pomNotation;
+    }
+
+    private static @NotNull File getCBPom(File mappingsDir, String minecraftVersion, String craftBukkitRevHash) {
         File craftBukkitDir =
-                new File(plugin.getMappingsDir(), "craftbukkit-" + CVNRemapper.MINECRAFT_VERSION);
+                new File(mappingsDir, "craftbukkit-" + minecraftVersion);
 
         try(SpigotMappingsDownloader smd =
                     new SpigotMappingsDownloader(
                             craftBukkitDir,
-                            CVNRemapper.MINECRAFT_VERSION,
+                            minecraftVersion,
                             "https://hub.spigotmc.org/stash/scm/spigot/craftbukkit.git"
                     )) {
             if(!craftBukkitDir.exists())
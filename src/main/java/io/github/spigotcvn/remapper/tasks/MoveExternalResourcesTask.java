@@ -1,82 +1,117 @@
 package io.github.spigotcvn.remapper.tasks;
 
-import io.github.spigotcvn.remapper.CVNRemapper;
 import io.github.spigotcvn.remapper.util.JarUtil;
+import io.github.spigotcvn.remapper.util.ParallelJarWriter;
+import io.github.spigotcvn.remapper.util.StageReport;
 import io.github.spigotcvn.remapper.util.Util;
-import org.gradle.api.Project;
-import org.gradle.api.Task;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.tasks.*;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.StandardCopyOption;
 import java.util.*;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
 
-public class MoveExternalResourcesTask implements ITask {
-    private CVNRemapper plugin;
+@CacheableTask
+public abstract class MoveExternalResourcesTask extends DefaultTask {
+    /**
+     * The intermediary mapped jar produced by the remapJar task.
+     */
+    @InputFile
+    @PathSensitive(PathSensitivity.NONE)
+    public abstract RegularFileProperty getInputJar();
 
-    @Override
-    public Task init(CVNRemapper plugin, Project project) {
-        this.plugin = plugin;
+    @InputFile
+    @PathSensitive(PathSensitivity.NONE)
+    public abstract RegularFileProperty getDummyClass();
 
-        return project.getTasks().create("moveExternalResources", task -> {
-            plugin.getTasks().get("remapJar").finalizedBy(task);
+    @OutputFile
+    public abstract RegularFileProperty getResultJar();
 
-            task.doLast(t -> {
-                // it should perform that only on the result jar which is already remapped
-                // that jar is located in the tmp directory
-                File jarFile = plugin.getFinalTmpJar();
-                File resultJarFile = new File(plugin.getTmpDir(), jarFile.getName().replace("-intermediary.jar", ".jar"));
+    /**
+     * Where the timings of this task are written to, as JSON.
+     */
+    @Internal
+    public abstract RegularFileProperty getReportFile();
 
-                plugin.addFileToMove(resultJarFile, plugin.getLibsDir());
+    @TaskAction
+    public void moveExternalResources() throws IOException {
+        StageReport report = new StageReport().property("task", getName());
+        File inputJar = getInputJar().get().getAsFile();
+        File resultJar = getResultJar().get().getAsFile();
 
-                try {
-                    moveExternalResources(jarFile, resultJarFile);
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-            });
-        });
+        try (StageReport.Stage stage = report.start("move-resources")) {
+            stage.readJar(inputJar).read(getDummyClass().get().getAsFile());
+            // it should perform that only on the result jar which is already remapped
+            moveExternalResources(inputJar, resultJar);
+            stage.wrote(resultJar);
+        }
+
+        if(getReportFile().isPresent()) report.write(getReportFile().get().getAsFile());
     }
 
     void moveExternalResources(File jarFile, File resultJarFile) throws IOException {
-        File unarchiveDir = new File(plugin.getTmpDir(), "unarchive");
-        unarchiveDir.mkdir();
+        // entries are streamed straight from the remapped jar to the result jar,
+        // only the plugin.yml is rewritten and the cvn files are added on the way
+        try (JarFile jar = new JarFile(jarFile);
+             ParallelJarWriter writer = new ParallelJarWriter(resultJarFile)) {
+            JarEntry pluginYmlEntry = jar.getJarEntry("plugin.yml");
+            if(pluginYmlEntry == null) throw new RuntimeException("Could not find the plugin.yml file in the jar");
 
-        JarUtil.copyJarContents(jarFile, unarchiveDir);
+            byte[] pluginYml;
+            try(InputStream is = jar.getInputStream(pluginYmlEntry)) {
+                pluginYml = JarUtil.readAllBytes(is);
+            }
+
+            // get contents of pluginYml
+            Map<String, String> ymlContent = new HashMap<>();
+            try(BufferedReader reader = new BufferedReader(new InputStreamReader(new ByteArrayInputStream(pluginYml), StandardCharsets.UTF_8))) {
+                String str;
+                while((str = reader.readLine()) != null) {
+                    String[] split = str.split(":");
+                    if(split.length < 2) continue;
+                    ymlContent.put(split[0], split[1]);
+                }
+            }
+            String name = ymlContent.get("name");
+            if(name == null) throw new RuntimeException("name not present in plugin.yml");
 
-        File pluginYml = new File(unarchiveDir, "plugin.yml");
-        if(!pluginYml.exists()) throw new RuntimeException("Could not find the plugin.yml file in the jar");
+            Enumeration<JarEntry> entries = jar.entries();
+            while(entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                switch(entry.getName()) {
+                    case "plugin.yml":
+                        writer.putEntry("cvn-plugin.yml", pluginYml, entry.getTime());
+                        writer.putEntry("plugin.yml", getDummyPluginYml(name), entry.getTime());
+                        break;
+                    case "cvn-plugin.yml":
+                    case "DummyJavaPlugin.class":
+                        // replaced by the ones generated here
+                        break;
+                    default:
+                        JarUtil.copyEntry(jar, entry, writer);
+                }
+            }
 
-        // get contents of pluginYml
-        Map<String, String> ymlContent = new HashMap<>();
-        List<String> content = Files.readAllLines(pluginYml.toPath());
-        for(String str : content) {
-            String[] split = str.split(":");
-            if(split.length < 2) continue;
-            ymlContent.put(split[0], split[1]);
+            // add the compiled java file to the jar
+            File javaFile = getDummyClass().get().getAsFile();
+            writer.putEntry("DummyJavaPlugin.class", Files.readAllBytes(javaFile.toPath()), javaFile.lastModified());
+            writer.finish();
         }
-        String name = ymlContent.get("name");
-        if(name == null) throw new RuntimeException("name not present in plugin.yml");
+    }
 
-        Files.copy(pluginYml.toPath(), new File(unarchiveDir, "cvn-plugin.yml").toPath(), StandardCopyOption.REPLACE_EXISTING);
-        try(InputStream fos = this.getClass().getResourceAsStream("/dummy-plugin.yml");
-            OutputStream fis = new FileOutputStream(pluginYml)) {
-            StringBuilder builder = new StringBuilder();
-            Scanner scanner = new Scanner(fos);
+    private byte[] getDummyPluginYml(String name) {
+        StringBuilder builder = new StringBuilder();
+        try(Scanner scanner = new Scanner(this.getClass().getResourceAsStream("/dummy-plugin.yml"))) {
             while(scanner.hasNextLine()) {
                 builder.append(
                         scanner.nextLine().replaceAll("\\$\\{uuid}", Util.getUUIDfromString(name).toString())
                 ).append("\n");
             }
-            scanner.close();
-            fis.write(builder.toString().getBytes());
         }
-
-        // move the compiled java file to the jar
-        File javaFile = new File(plugin.getTmpDir(), "DummyJavaPlugin.class");
-        Files.copy(javaFile.toPath(), new File(unarchiveDir, "DummyJavaPlugin.class").toPath(), StandardCopyOption.REPLACE_EXISTING);
-
-        // repackage the jar
-        JarUtil.repackJar(resultJarFile, unarchiveDir);
+        return builder.toString().getBytes();
     }
 }
@@ -1,41 +1,60 @@
 package io.github.spigotcvn.remapper.tasks;
 
-import io.github.spigotcvn.remapper.CVNRemapper;
-import org.gradle.api.Project;
-import org.gradle.api.Task;
-import org.gradle.api.tasks.bundling.Jar;
+import io.github.spigotcvn.remapper.util.StageReport;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.tasks.*;
 
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
 
-public class MoveJarsTask implements ITask {
-    private CVNRemapper plugin;
+public abstract class MoveJarsTask extends DefaultTask {
+    /**
+     * The jars to move, missing ones are skipped.
+     */
+    @InputFiles
+    @PathSensitive(PathSensitivity.NAME_ONLY)
+    public abstract ConfigurableFileCollection getJars();
 
-    @Override
-    public Task init(CVNRemapper plugin, Project project) {
-        this.plugin = plugin;
+    @Internal
+    public abstract DirectoryProperty getDestinationDir();
 
-        return project.getTasks().create("moveJars", Jar.class, task -> {
-            project.getTasks().getByName("moveExternalResources").finalizedBy(task);
+    /**
+     * The jars in the destination directory, one per jar to move.
+     */
+    @OutputFiles
+    public abstract ConfigurableFileCollection getMovedJars();
 
-            task.doLast(jarTask -> {
-                moveJars();
+    /**
+     * Where the timings of this task are written to, as JSON.
+     */
+    @Internal
+    public abstract RegularFileProperty getReportFile();
+
+    @TaskAction
+    public void moveJars() throws IOException {
+        File to = getDestinationDir().get().getAsFile();
+        if(!to.isDirectory()) return;
+
+        StageReport report = new StageReport().property("task", getName());
+        try (StageReport.Stage stage = report.start("move-jars")) {
+            // the jars are copied rather than moved, so the tasks producing them stay up to date
+            getJars().forEach(from -> {
+                try {
+                    if(!from.exists()) return;
+                    File newDest = new File(to, from.getName());
+                    Files.copy(from.toPath(), newDest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                    stage.read(from).wrote(newDest);
+                } catch (IOException e) {
+                    e.printStackTrace();
+                }
             });
-        });
-    }
+        }
 
-    private void moveJars() {
-        plugin.getFilesToMove().forEach((from, to) -> {
-            try {
-                if(!to.isDirectory()) return;
-                File newDest = new File(to, from.getName());
-                Files.copy(from.toPath(), newDest.toPath(), StandardCopyOption.REPLACE_EXISTING);
-                Files.deleteIfExists(from.toPath());
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        });
+        if(getReportFile().isPresent()) report.write(getReportFile().get().getAsFile());
     }
 }
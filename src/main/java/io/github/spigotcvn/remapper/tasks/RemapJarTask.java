@@ -1,126 +1,340 @@
 package io.github.spigotcvn.remapper.tasks;
 
 import io.github.spigotcvn.remapper.CVNRemapper;
+import io.github.spigotcvn.remapper.RemapperService;
+import io.github.spigotcvn.remapper.util.MappedReferenceFilter;
+import io.github.spigotcvn.remapper.util.MappingComposer;
 import io.github.spigotcvn.remapper.util.MinecraftVersion;
+import io.github.spigotcvn.remapper.util.RemapOptions;
+import io.github.spigotcvn.remapper.util.RemapScope;
 import io.github.spigotcvn.remapper.util.RemapUtil;
-import org.gradle.api.Project;
-import org.gradle.api.Task;
-import org.gradle.api.tasks.bundling.Jar;
+import io.github.spigotcvn.remapper.util.StageReport;
+import org.gradle.api.DefaultTask;
+import org.gradle.api.file.ConfigurableFileCollection;
+import org.gradle.api.file.DirectoryProperty;
+import org.gradle.api.file.RegularFileProperty;
+import org.gradle.api.provider.ListProperty;
+import org.gradle.api.provider.Property;
+import org.gradle.api.tasks.*;
+import org.gradle.workers.WorkAction;
+import org.gradle.workers.WorkParameters;
+import org.gradle.workers.WorkerExecutor;
 
+import javax.inject.Inject;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.StandardCopyOption;
+import java.util.Collections;
 
-public class RemapJarTask implements ITask {
+@CacheableTask
+public abstract class RemapJarTask extends DefaultTask {
     public static final MinecraftVersion FIRST_MOJMAP_VERSION = new MinecraftVersion("1.17");
 
-    private CVNRemapper plugin;
+    /**
+     * The jar produced by the jar task.
+     */
+    @InputFile
+    @PathSensitive(PathSensitivity.NONE)
+    public abstract RegularFileProperty getInputJar();
 
-    @Override
-    public Task init(CVNRemapper plugin, Project project) {
-        this.plugin = plugin;
+    /**
+     * The final intermediary mappings, generated by the generateMappings task.
+     */
+    @InputFile
+    @PathSensitive(PathSensitivity.NONE)
+    public abstract RegularFileProperty getMappingsFile();
 
-        return project.getTasks().create("remapJar", task -> {
-            // it always runs after the Jar task
-            project.getTasks().getByName("jar").finalizedBy(task);
-            // it will run the downloadMappings task before running this task
-            task.dependsOn(plugin.getTasks().get("generateMappings"));
+    /**
+     * The mappings and server jars from the local maven repository, missing ones are ignored.
+     */
+    @InputFiles
+    @PathSensitive(PathSensitivity.NAME_ONLY)
+    public abstract ConfigurableFileCollection getServerFiles();
 
-            task.doLast(t -> {
-                CVNRemapper.detectMinecraftVersion(project);
+    @Input
+    public abstract Property<String> getMinecraftVersion();
 
-                try {
-                    fullyRemap((Jar) project.getTasks().getByName("jar"));
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-            });
+    @Input
+    public abstract Property<Boolean> getUsesMojmaps();
+
+    @Input
+    public abstract Property<Boolean> getSinglePassRemap();
+
+    @Input
+    public abstract Property<Boolean> getKeepSpigotJar();
+
+    /**
+     * The package prefixes to remap, every package if empty.
+     */
+    @Input
+    public abstract ListProperty<String> getIncludePackages();
+
+    /**
+     * The package prefixes that are copied without being remapped, like shaded libraries.
+     */
+    @Input
+    public abstract ListProperty<String> getExcludePackages();
+
+    /**
+     * Whether classes that don't refer to any minecraft or craftbukkit class are copied without being remapped.
+     */
+    @Input
+    public abstract Property<Boolean> getCopyUnmappedClasses();
+
+    @Internal
+    public abstract DirectoryProperty getClassCacheDir();
+
+    @Internal
+    public abstract DirectoryProperty getHierarchyIndexDir();
+
+    /**
+     * Keeps the mappings loaded between builds, so only the first remap in a daemon has to parse them.
+     */
+    @Internal
+    public abstract Property<RemapperService> getRemapperService();
+
+    /**
+     * Where the timings of every remap hop are written to, as JSON.
+     */
+    @Internal
+    public abstract RegularFileProperty getReportFile();
+
+    @OutputFile
+    public abstract RegularFileProperty getOriginalJar();
+
+    @OutputFile
+    public abstract RegularFileProperty getIntermediaryJar();
+
+    /**
+     * Only present for mojang mapped projects that keep the spigot mapped jar.
+     */
+    @OutputFile
+    @Optional
+    public abstract RegularFileProperty getSpigotJar();
+
+    @Inject
+    public abstract WorkerExecutor getWorkerExecutor();
+
+    @TaskAction
+    public void fullyRemap() {
+        // submitted as work, so the remaps against several versions can run at the same time
+        getWorkerExecutor().noIsolation().submit(FullyRemap.class, parameters -> {
+            parameters.getTaskName().set(getName());
+            parameters.getTemporaryDir().set(getTemporaryDir());
+            parameters.getInputJar().set(getInputJar());
+            parameters.getMappingsFile().set(getMappingsFile());
+            parameters.getMinecraftVersion().set(getMinecraftVersion());
+            parameters.getUsesMojmaps().set(getUsesMojmaps());
+            parameters.getSinglePassRemap().set(getSinglePassRemap());
+            parameters.getIncludePackages().set(getIncludePackages());
+            parameters.getExcludePackages().set(getExcludePackages());
+            parameters.getCopyUnmappedClasses().set(getCopyUnmappedClasses());
+            parameters.getClassCacheDir().set(getClassCacheDir());
+            parameters.getHierarchyIndexDir().set(getHierarchyIndexDir());
+            parameters.getRemapperService().set(getRemapperService());
+            parameters.getReportFile().set(getReportFile());
+            parameters.getOriginalJar().set(getOriginalJar());
+            parameters.getIntermediaryJar().set(getIntermediaryJar());
+            parameters.getSpigotJar().set(getSpigotJar());
         });
     }
 
-    public void fullyRemap(Jar jarTask) throws IOException {
-        // find the mappings file in the local maven repository
-        File mojMaps = new File(
-                System.getProperty("user.home") +
-                        "/.m2/repository/" +
-                        CVNRemapper.SPIGOT_GROUP.replace(".", "/") +
-                        "/minecraft-server/" +
-                        CVNRemapper.MINECRAFT_VERSION + "-R0.1-SNAPSHOT/" +
-                        "minecraft-server-" + CVNRemapper.MINECRAFT_VERSION + "-R0.1-SNAPSHOT-maps-mojang.txt"
-        );
+    public interface Parameters extends WorkParameters {
+        Property<String> getTaskName();
 
-        File spigotMappings = new File(
-                System.getProperty("user.home") +
-                        "/.m2/repository/" +
-                        CVNRemapper.SPIGOT_GROUP.replace(".", "/") +
-                        "/minecraft-server/" +
-                        CVNRemapper.MINECRAFT_VERSION + "-R0.1-SNAPSHOT/" +
-                        "minecraft-server-" + CVNRemapper.MINECRAFT_VERSION + "-R0.1-SNAPSHOT-maps-spigot.csrg"
-        );
+        DirectoryProperty getTemporaryDir();
 
-        File classpathJar = new File(
-                System.getProperty("user.home") +
-                        "/.m2/repository/" +
-                        CVNRemapper.SPIGOT_GROUP.replace(".", "/") +
-                        "/" + CVNRemapper.SPIGOT_ARTIFACT + "/" +
-                        CVNRemapper.MINECRAFT_VERSION + "-R0.1-SNAPSHOT/" +
-                        CVNRemapper.SPIGOT_ARTIFACT + "-" + CVNRemapper.MINECRAFT_VERSION + "-R0.1-SNAPSHOT.jar"
-        );
-        if (!classpathJar.exists()) {
-            throw new RuntimeException("Could not find the classpath jar in the local maven repository\n" +
-                    "Please make sure you have ran the BuildTools with the --remapped option");
+        RegularFileProperty getInputJar();
+
+        RegularFileProperty getMappingsFile();
+
+        Property<String> getMinecraftVersion();
+
+        Property<Boolean> getUsesMojmaps();
+
+        Property<Boolean> getSinglePassRemap();
+
+        ListProperty<String> getIncludePackages();
+
+        ListProperty<String> getExcludePackages();
+
+        Property<Boolean> getCopyUnmappedClasses();
+
+        DirectoryProperty getClassCacheDir();
+
+        DirectoryProperty getHierarchyIndexDir();
+
+        Property<RemapperService> getRemapperService();
+
+        RegularFileProperty getReportFile();
+
+        RegularFileProperty getOriginalJar();
+
+        RegularFileProperty getIntermediaryJar();
+
+        RegularFileProperty getSpigotJar();
+    }
+
+    public abstract static class FullyRemap implements WorkAction<Parameters> {
+        @Override
+        public void execute() {
+            try {
+                fullyRemap();
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
         }
 
-        // copy the original jar as -original.jar
-        File original = jarTask.getArchiveFile().get().getAsFile();
+        private void fullyRemap() throws IOException {
+            Parameters parameters = getParameters();
+            File temporaryDir = parameters.getTemporaryDir().get().getAsFile();
+            String minecraftVersion = parameters.getMinecraftVersion().get();
 
-        File originalTmp = new File(
-                plugin.getTmpDir(),
-                jarTask.getArchiveFile().get().getAsFile().getName()
-                        .replace(".jar", "-original.jar")
-        );
-        Files.copy(original.toPath(),
-                originalTmp.toPath(),
-                StandardCopyOption.REPLACE_EXISTING
-        );
+            // find the mappings file in the local maven repository
+            File mojMaps = getMojangMappings(minecraftVersion);
+            File spigotMappings = getSpigotMappings(minecraftVersion);
+            File classpathJar = getServerJar(minecraftVersion);
+            if (!classpathJar.exists()) {
+                throw new RuntimeException("Could not find the classpath jar in the local maven repository\n" +
+                        "Please make sure you have ran the BuildTools with the --remapped option");
+            }
+
+            File mappingsFile = parameters.getMappingsFile().get().getAsFile();
+            RemapOptions options = new RemapOptions();
+            if (parameters.getClassCacheDir().isPresent()) options.setClassCacheDir(parameters.getClassCacheDir().get().getAsFile());
+            if (parameters.getHierarchyIndexDir().isPresent()) options.setHierarchyIndexDir(parameters.getHierarchyIndexDir().get().getAsFile());
+            if (parameters.getRemapperService().isPresent()) options.setMappingStore(parameters.getRemapperService().get().getMappingStore());
+            options.setReport(new StageReport()
+                    .property("task", parameters.getTaskName().get())
+                    .property("minecraftVersion", minecraftVersion));
+
+            // copy the original jar as -original.jar
+            File original = parameters.getInputJar().get().getAsFile();
+            File originalTmp = parameters.getOriginalJar().get().getAsFile();
+            try (StageReport.Stage stage = options.getReport().start("copy-original")) {
+                Files.copy(original.toPath(),
+                        originalTmp.toPath(),
+                        StandardCopyOption.REPLACE_EXISTING
+                );
+                stage.read(original).wrote(originalTmp);
+            }
 
+            File resultTmp = parameters.getIntermediaryJar().get().getAsFile();
+            File spigotResult = parameters.getSpigotJar().isPresent() ? parameters.getSpigotJar().get().getAsFile() : null;
+
+            // packages outside the scope skip the remappers and are only added back to the results
+            RemapScope scope = new RemapScope(parameters.getIncludePackages().get(), parameters.getExcludePackages().get(),
+                    parameters.getCopyUnmappedClasses().get() ? MappedReferenceFilter.MAPPED_NAMESPACES : Collections.emptyList());
+            File copiedJar = new File(temporaryDir, original.getName().replace(".jar", "-copied.jar"));
+            File input = original;
+            if (!scope.isEmpty()) {
+                File scopedJar = new File(temporaryDir, original.getName().replace(".jar", "-scoped.jar"));
+                try (StageReport.Stage stage = options.getReport().start("split-scope")) {
+                    int copied = scope.split(original, scopedJar, copiedJar);
+                    stage.read(original).wrote(scopedJar).wrote(copiedJar);
+                    System.out.println("Copying " + copied + " entries without remapping them");
+                    if (copied > 0) {
+                        input = scopedJar;
+                        // the remapped classes may still extend or use the copied ones
+                        options.setClasspathJars(Collections.singletonList(copiedJar));
+                    }
+                }
+            }
+
+            if(parameters.getUsesMojmaps().get() && parameters.getSinglePassRemap().get()) {
+                File mojangClasspathJar = getMojangServerJar(minecraftVersion);
+                if (!mojangClasspathJar.exists()) {
+                    throw new RuntimeException("Could not find the mojang mapped classpath jar in the local maven repository\n" +
+                            "Please make sure you have ran the BuildTools with the --remapped option");
+                }
 
-        if(plugin.getUsesMojmaps()) {
-            File resultTmp = new File(plugin.getTmpDir(), jarTask.getArchiveFile().get().getAsFile().getName().replace(".jar", "-intermediary.jar"));
-            File officialTmp = new File(plugin.getTmpDir(), jarTask.getArchiveFile().get().getAsFile().getName().replace(".jar", "-official.jar"));
-            File spigotTmp = new File(plugin.getTmpDir(), jarTask.getArchiveFile().get().getAsFile().getName().replace(".jar", "-spigot.jar"));
+                File spigotTmp = parameters.getSpigotJar().isPresent() ? parameters.getSpigotJar().get().getAsFile() : null;
 
-            plugin.setFinalTmpJar(resultTmp);
+                MappingComposer composer = options.getMappingStore()
+                        .getComposer(mojMaps, spigotMappings, mappingsFile, minecraftVersion);
+                System.out.println("Composed mojang, spigot and intermediary mappings");
 
-            plugin.addFileToMove(originalTmp, plugin.getLibsDir());
-            plugin.addFileToMove(spigotTmp, plugin.getLibsDir());
+                RemapUtil.remapJarComposed(composer, mojangClasspathJar.toPath(), input, resultTmp, spigotTmp, options);
 
-            RemapUtil.remapJarToObfuscated(mojMaps, jarTask.getArchiveFile().get().getAsFile(), officialTmp);
-            RemapUtil.remapJarToSpigotClass(
-                    spigotMappings,
-                    officialTmp,
-                    spigotTmp
-            );
-            RemapUtil.remapJarToIntermediary(classpathJar.toPath(), spigotTmp, resultTmp);
+                System.out.println("Finished remapping jars. Jar:");
+                System.out.println("Intermediary mapped (to be used with CVN): " + resultTmp.getName());
+                if(spigotTmp != null) System.out.println("Spigot mapped (to be used like normal): " + spigotTmp.getName());
+                System.out.println("Original (Unmapped): " + originalTmp.getName());
+            } else if(parameters.getUsesMojmaps().get()) {
+                File officialTmp = new File(temporaryDir, original.getName().replace(".jar", "-official.jar"));
+                File spigotTmp = parameters.getSpigotJar().isPresent()
+                        ? parameters.getSpigotJar().get().getAsFile()
+                        : new File(temporaryDir, original.getName().replace(".jar", "-spigot.jar"));
 
-            System.out.println("Finished remapping jars. Jar:");
-            System.out.println("Intermediary mapped (to be used with CVN): " + resultTmp.getName());
-            System.out.println("Spigot mapped (to be used like normal): " + spigotTmp.getName());
-            System.out.println("Original (Unmapped): " + originalTmp.getName());
+                RemapUtil.remapJarToObfuscated(mojMaps, input, officialTmp, options);
+                RemapUtil.remapJarToSpigotClass(
+                        spigotMappings,
+                        officialTmp,
+                        spigotTmp,
+                        options
+                );
+                RemapUtil.remapJarToIntermediary(classpathJar.toPath(), mappingsFile, minecraftVersion,
+                        spigotTmp, resultTmp, options);
 
-            Files.deleteIfExists(officialTmp.toPath());
-        } else {
-            File resultTmp = new File(plugin.getTmpDir(), jarTask.getArchiveFile().get().getAsFile().getName().replace(".jar", "-intermediary.jar"));
+                System.out.println("Finished remapping jars. Jar:");
+                System.out.println("Intermediary mapped (to be used with CVN): " + resultTmp.getName());
+                if(parameters.getSpigotJar().isPresent()) System.out.println("Spigot mapped (to be used like normal): " + spigotTmp.getName());
+                System.out.println("Original (Unmapped): " + originalTmp.getName());
 
-            plugin.setFinalTmpJar(resultTmp);
-            plugin.addFileToMove(originalTmp, plugin.getLibsDir());
+                Files.deleteIfExists(officialTmp.toPath());
+                if(!parameters.getSpigotJar().isPresent()) Files.deleteIfExists(spigotTmp.toPath());
+            } else {
+                RemapUtil.remapJarToIntermediary(classpathJar.toPath(), mappingsFile, minecraftVersion,
+                        input == original ? originalTmp : input, resultTmp, options);
 
-            RemapUtil.remapJarToIntermediary(classpathJar.toPath(), originalTmp, resultTmp);
+                System.out.println("Finished remapping jars. Jar:");
+                System.out.println("Intermediary mapped (to be used with CVN): " + resultTmp.getName());
+                System.out.println("Original (Spigot mapped): " + originalTmp.getName());
+            }
 
-            System.out.println("Finished remapping jars. Jar:");
-            System.out.println("Intermediary mapped (to be used with CVN): " + resultTmp.getName());
-            System.out.println("Original (Spigot mapped): " + originalTmp.getName());
+            if (input != original) {
+                try (StageReport.Stage stage = options.getReport().start("merge-scope")) {
+                    stage.read(copiedJar);
+                    RemapScope.merge(resultTmp, copiedJar);
+                    stage.wrote(resultTmp);
+                    if (spigotResult != null) {
+                        RemapScope.merge(spigotResult, copiedJar);
+                        stage.wrote(spigotResult);
+                    }
+                }
+                Files.deleteIfExists(input.toPath());
+            }
+            Files.deleteIfExists(copiedJar.toPath());
+
+            if (parameters.getReportFile().isPresent()) options.getReport().write(parameters.getReportFile().get().getAsFile());
         }
     }
+
+    public static File getMojangMappings(String minecraftVersion) {
+        return getMavenFile("minecraft-server", minecraftVersion, "-maps-mojang.txt");
+    }
+
+    public static File getSpigotMappings(String minecraftVersion) {
+        return getMavenFile("minecraft-server", minecraftVersion, "-maps-spigot.csrg");
+    }
+
+    public static File getServerJar(String minecraftVersion) {
+        return getMavenFile(CVNRemapper.SPIGOT_ARTIFACT, minecraftVersion, ".jar");
+    }
+
+    public static File getMojangServerJar(String minecraftVersion) {
+        return getMavenFile(CVNRemapper.SPIGOT_ARTIFACT, minecraftVersion, "-remapped-mojang.jar");
+    }
+
+    private static File getMavenFile(String artifact, String minecraftVersion, String suffix) {
+        return new File(
+                System.getProperty("user.home") +
+                        "/.m2/repository/" +
+                        CVNRemapper.SPIGOT_GROUP.replace(".", "/") +
+                        "/" + artifact + "/" +
+                        minecraftVersion + "-R0.1-SNAPSHOT/" +
+                        artifact + "-" + minecraftVersion + "-R0.1-SNAPSHOT" + suffix
+        );
+    }
 }
@@ -0,0 +1,222 @@
+package io.github.spigotcvn.remapper.util;
+
+import org.objectweb.asm.AnnotationVisitor;
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.Opcodes;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.zip.Deflater;
+
+/**
+ * An on-disk index of the class hierarchy and member signatures of a server jar, built once per jar hash.
+ * <p>
+ * Every class is stored as a skeleton without code, together with its supertypes, so the part of the
+ * hierarchy a plugin actually needs can be handed to the remapper without reading the whole server jar.
+ * Classes missing from the index are loaded from the server jar when they are asked for.
+ */
+public class ClassHierarchyIndex {
+    private static final int MAGIC = 0x43564E48; // CVNH
+    private static final int FORMAT_VERSION = 1;
+
+    private final File serverJar;
+    private final Map<String, IndexEntry> entries;
+    private final ByteBuffer skeletons;
+
+    private ClassHierarchyIndex(File serverJar, Map<String, IndexEntry> entries, ByteBuffer skeletons) {
+        this.serverJar = serverJar;
+        this.entries = entries;
+        this.skeletons = skeletons;
+    }
+
+    /**
+     * Loads the index of the given server jar, building it first if there is none for its current contents.
+     * @param serverJar The server jar to index
+     * @param indexDir  The directory the indexes are kept in
+     * @return The index of the server jar
+     * @throws IOException If an error occurs while reading the jar or the index
+     */
+    public static ClassHierarchyIndex load(File serverJar, File indexDir) throws IOException {
+        File indexFile = new File(indexDir, serverJar.getName() + "-" + JarFingerprint.of(serverJar, indexDir).getHash().substring(0, 16) + ".idx");
+        if (!indexFile.exists()) {
+            build(serverJar, indexFile);
+        }
+        return read(serverJar, indexFile);
+    }
+
+    /**
+     * Writes a jar with the skeletons of the given classes and all of their supertypes.
+     * @param references The classes to include, usually everything the remapped jar refers to
+     * @param outputJar  The jar to write, to be used as the remapper's classpath
+     * @return The names of the classes that were written
+     * @throws IOException If an error occurs while reading the server jar or writing the output
+     */
+    public Set<String> writeClassPath(Collection<String> references, File outputJar) throws IOException {
+        Map<String, byte[]> classes = new LinkedHashMap<>();
+        Deque<String> queue = new ArrayDeque<>(references);
+
+        try (JarFile jar = new JarFile(serverJar);
+             JarOutputStream jos = new JarOutputStream(new BufferedOutputStream(new FileOutputStream(outputJar), 65536))) {
+            while (!queue.isEmpty()) {
+                String name = queue.poll();
+                if (classes.containsKey(name)) continue;
+
+                byte[] skeleton;
+                List<String> supertypes = new ArrayList<>();
+                IndexEntry entry = entries.get(name);
+                if (entry != null) {
+                    skeleton = new byte[entry.length];
+                    ByteBuffer buffer = skeletons.duplicate();
+                    buffer.position(entry.offset);
+                    buffer.get(skeleton);
+                    if (entry.superName != null) supertypes.add(entry.superName);
+                    supertypes.addAll(Arrays.asList(entry.interfaces));
+                } else {
+                    // not indexed, fall back to the server jar itself
+                    JarEntry jarEntry = jar.getJarEntry(name + ".class");
+                    if (jarEntry == null) continue;
+                    try (InputStream is = jar.getInputStream(jarEntry)) {
+                        skeleton = toSkeleton(JarUtil.readAllBytes(is));
+                    }
+                    ClassReader reader = new ClassReader(skeleton);
+                    if (reader.getSuperName() != null) supertypes.add(reader.getSuperName());
+                    supertypes.addAll(Arrays.asList(reader.getInterfaces()));
+                }
+
+                classes.put(name, skeleton);
+                queue.addAll(supertypes);
+            }
+
+            // only read back by the remapper, so there is no point in compressing it
+            jos.setLevel(Deflater.NO_COMPRESSION);
+            for (Map.Entry<String, byte[]> entry : classes.entrySet()) {
+                jos.putNextEntry(new JarEntry(entry.getKey() + ".class"));
+                jos.write(entry.getValue());
+                jos.closeEntry();
+            }
+        }
+        System.out.println("Using " + classes.size() + " of " + entries.size() + " indexed server classes as classpath");
+        return classes.keySet();
+    }
+
+    private static void build(File serverJar, File indexFile) throws IOException {
+        System.out.println("Indexing the class hierarchy of " + serverJar.getName() + "...");
+        indexFile.getParentFile().mkdirs();
+
+        ByteArrayOutputStream table = new ByteArrayOutputStream();
+        ByteArrayOutputStream blob = new ByteArrayOutputStream();
+        int count = 0;
+
+        try (JarFile jar = new JarFile(serverJar);
+             DataOutputStream tableOut = new DataOutputStream(table)) {
+            Enumeration<JarEntry> jarEntries = jar.entries();
+            while (jarEntries.hasMoreElements()) {
+                JarEntry jarEntry = jarEntries.nextElement();
+                if (jarEntry.isDirectory() || !jarEntry.getName().endsWith(".class")
+                        || jarEntry.getName().startsWith("META-INF/")
+                        || jarEntry.getName().endsWith("module-info.class")) continue;
+
+                byte[] skeleton;
+                try (InputStream is = jar.getInputStream(jarEntry)) {
+                    skeleton = toSkeleton(JarUtil.readAllBytes(is));
+                }
+                ClassReader reader = new ClassReader(skeleton);
+
+                tableOut.writeUTF(reader.getClassName());
+                tableOut.writeUTF(reader.getSuperName() == null ? "" : reader.getSuperName());
+                tableOut.writeShort(reader.getInterfaces().length);
+                for (String iface : reader.getInterfaces()) {
+                    tableOut.writeUTF(iface);
+                }
+                tableOut.writeInt(blob.size());
+                tableOut.writeInt(skeleton.length);
+                blob.write(skeleton);
+                count++;
+            }
+        }
+
+        File tmpFile = new File(indexFile.getParentFile(), indexFile.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 65536))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeInt(count);
+            out.writeInt(table.size());
+            table.writeTo(out);
+            blob.writeTo(out);
+        }
+
+        // indexes of older versions of the same jar are never read again
+        String prefix = serverJar.getName() + "-";
+        File[] stale = indexFile.getParentFile().listFiles((dir, name) -> name.startsWith(prefix) && name.endsWith(".idx"));
+        if (stale != null) {
+            for (File file : stale) {
+                Files.deleteIfExists(file.toPath());
+            }
+        }
+        Files.move(tmpFile.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static ClassHierarchyIndex read(File serverJar, File indexFile) throws IOException {
+        ByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+            throw new IOException("Invalid or outdated class hierarchy index: " + indexFile.getAbsolutePath());
+        }
+        int count = buffer.getInt();
+        byte[] table = new byte[buffer.getInt()];
+        buffer.get(table);
+
+        Map<String, IndexEntry> entries = new HashMap<>(count * 2);
+        try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(table))) {
+            for (int i = 0; i < count; i++) {
+                String name = in.readUTF();
+                IndexEntry entry = new IndexEntry();
+                String superName = in.readUTF();
+                entry.superName = superName.isEmpty() ? null : superName;
+                entry.interfaces = new String[in.readShort()];
+                for (int j = 0; j < entry.interfaces.length; j++) {
+                    entry.interfaces[j] = in.readUTF();
+                }
+                entry.offset = in.readInt();
+                entry.length = in.readInt();
+                entries.put(name, entry);
+            }
+        }
+
+        return new ClassHierarchyIndex(serverJar, entries, buffer.slice());
+    }
+
+    /**
+     * Strips everything the remapper does not need to resolve the hierarchy: code, debug info and annotations.
+     */
+    private static byte[] toSkeleton(byte[] classBytes) {
+        ClassWriter writer = new ClassWriter(0);
+        new ClassReader(classBytes).accept(new ClassVisitor(Opcodes.ASM9, writer) {
+            @Override
+            public AnnotationVisitor visitAnnotation(String descriptor, boolean visible) {
+                return null;
+            }
+        }, ClassReader.SKIP_CODE | ClassReader.SKIP_DEBUG | ClassReader.SKIP_FRAMES);
+        return writer.toByteArray();
+    }
+
+    private static class IndexEntry {
+        private String superName;
+        private String[] interfaces;
+        private int offset;
+        private int length;
+    }
+}
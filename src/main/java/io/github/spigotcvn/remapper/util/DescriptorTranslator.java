@@ -0,0 +1,239 @@
+package io.github.spigotcvn.remapper.util;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Translates class names and descriptors through one or more class maps, applied one after another.
+ * <p>
+ * Descriptors are walked by index instead of being cut up, and both translated descriptors and
+ * resolved class names are kept in bounded caches, as the same ones come up over and over again.
+ * The caches are split into segments with their own lock, so a translator can be shared between threads.
+ */
+public class DescriptorTranslator {
+    private static final int DEFAULT_CACHE_SIZE = 16384;
+    private static final int CACHE_SEGMENTS = 16;
+
+    private final List<Map<String, String>> classMaps;
+    private final Cache classCache;
+    private final Cache descCache;
+    private final Cache typeCache;
+
+    @SafeVarargs
+    public DescriptorTranslator(Map<String, String>... classMaps) {
+        this(DEFAULT_CACHE_SIZE, classMaps);
+    }
+
+    @SafeVarargs
+    public DescriptorTranslator(int cacheSize, Map<String, String>... classMaps) {
+        this.classMaps = Arrays.asList(classMaps);
+        this.classCache = new Cache(cacheSize);
+        this.descCache = new Cache(cacheSize);
+        this.typeCache = new Cache(cacheSize);
+    }
+
+    /**
+     * Maps a class name, resolving inner classes through their outer class if they aren't mapped themselves.
+     * @see MapUtil#deobfClass(String, Map)
+     */
+    public String mapClass(String name) {
+        String mapped = classCache.get(name);
+        if (mapped == null) {
+            mapped = name;
+            for (Map<String, String> classMap : classMaps) {
+                mapped = deobfClass(mapped, classMap);
+            }
+            classCache.put(name, mapped);
+        }
+        return mapped;
+    }
+
+    /**
+     * Maps the classes of a JVM method descriptor, only classes that are mapped themselves are replaced.
+     * @see MapUtil#toObf(String, Map)
+     */
+    public String mapMethodDesc(String desc) {
+        String mapped = descCache.get(desc);
+        if (mapped == null) {
+            StringBuilder out = new StringBuilder(desc.length() + 16);
+            out.append('(');
+            int i = 1;
+            while (i < desc.length()) {
+                if (desc.charAt(i) == ')') {
+                    out.append(')');
+                    i++;
+                } else {
+                    i = mapType(desc, i, out, classMaps);
+                }
+            }
+            mapped = out.toString();
+            descCache.put(desc, mapped);
+        }
+        return mapped;
+    }
+
+    /**
+     * Builds a mapped JVM method descriptor from the types as they are written in ProGuard mappings.
+     * @param args       The comma separated argument types, e.g. {@code int,java.lang.String[]}
+     * @param returnType The return type, e.g. {@code void}
+     * @return The descriptor, with every class mapped by {@link #mapClass(String)}
+     */
+    public String toMethodDesc(String args, String returnType) {
+        StringBuilder out = new StringBuilder(args.length() + 16);
+        out.append('(');
+        int start = 0;
+        while (start < args.length()) {
+            int end = args.indexOf(',', start);
+            if (end == -1) end = args.length();
+            if (end > start) out.append(toType(args.substring(start, end)));
+            start = end + 1;
+        }
+        return out.append(')').append(toType(returnType)).toString();
+    }
+
+    private String toType(String type) {
+        String mapped = typeCache.get(type);
+        if (mapped == null) {
+            int end = type.length();
+            int dimensions = 0;
+            while (end >= 2 && type.charAt(end - 2) == '[' && type.charAt(end - 1) == ']') {
+                end -= 2;
+                dimensions++;
+            }
+
+            StringBuilder out = new StringBuilder(end + dimensions + 2);
+            for (int i = 0; i < dimensions; i++) out.append('[');
+            String primitive = dimensions == 0 ? primitive(type) : primitive(type.substring(0, end));
+            if (primitive != null) {
+                out.append(primitive);
+            } else {
+                out.append('L').append(mapClass(type.substring(0, end).replace('.', '/'))).append(';');
+            }
+            mapped = out.toString();
+            typeCache.put(type, mapped);
+        }
+        return mapped;
+    }
+
+    /**
+     * Maps a single type of a descriptor, starting at the given index.
+     * @return The index right after the type
+     */
+    static int mapType(String desc, int start, StringBuilder out, List<Map<String, String>> classMaps) {
+        int i = start;
+        while (i < desc.length() && desc.charAt(i) == '[') {
+            out.append('[');
+            i++;
+        }
+        if (i == desc.length()) return i;
+
+        char c = desc.charAt(i);
+        switch (c) {
+            case 'B':
+            case 'C':
+            case 'D':
+            case 'F':
+            case 'I':
+            case 'J':
+            case 'S':
+            case 'Z':
+            case 'V':
+                out.append(c);
+                return i + 1;
+            case 'L':
+                int end = desc.indexOf(';', i);
+                String type = desc.substring(i + 1, end);
+                for (Map<String, String> classMap : classMaps) {
+                    String mapped = classMap.get(type);
+                    if (mapped != null) type = mapped;
+                }
+                out.append('L').append(type).append(';');
+                return end + 1;
+            default:
+                return i + 1;
+        }
+    }
+
+    static String deobfClass(String obf, Map<String, String> classMap) {
+        String mapped = classMap.get(obf);
+        if (mapped != null) return mapped;
+
+        // walk outwards until an outer class is mapped, then append the inner names again
+        int idx = obf.length();
+        while ((idx = obf.lastIndexOf('$', idx - 1)) != -1) {
+            mapped = classMap.get(obf.substring(0, idx));
+            if (mapped != null) {
+                return mapped + obf.substring(idx);
+            }
+        }
+        // like the BuildTools original, an unmapped inner class ends up as its outermost class
+        int outer = obf.indexOf('$');
+        return outer == -1 ? obf : obf.substring(0, outer);
+    }
+
+    private static String primitive(String type) {
+        switch (type) {
+            case "byte":
+                return "B";
+            case "char":
+                return "C";
+            case "double":
+                return "D";
+            case "float":
+                return "F";
+            case "int":
+                return "I";
+            case "long":
+                return "J";
+            case "short":
+                return "S";
+            case "boolean":
+                return "Z";
+            case "void":
+                return "V";
+            default:
+                return null;
+        }
+    }
+
+    /**
+     * A bounded cache made of least recently used segments, each guarded by its own lock.
+     */
+    private static class Cache {
+        private final Map<String, String>[] segments;
+
+        @SuppressWarnings("unchecked")
+        private Cache(int size) {
+            int segmentSize = (size + CACHE_SEGMENTS - 1) / CACHE_SEGMENTS;
+            segments = new Map[CACHE_SEGMENTS];
+            for (int i = 0; i < segments.length; i++) {
+                segments[i] = new LinkedHashMap<String, String>(Math.min(segmentSize, 1024), 0.75f, true) {
+                    @Override
+                    protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+                        return size() > segmentSize;
+                    }
+                };
+            }
+        }
+
+        private Map<String, String> segment(String key) {
+            return segments[(key.hashCode() & 0x7FFFFFFF) % segments.length];
+        }
+
+        private String get(String key) {
+            Map<String, String> segment = segment(key);
+            synchronized (segment) {
+                return segment.get(key);
+            }
+        }
+
+        private void put(String key, String value) {
+            Map<String, String> segment = segment(key);
+            synchronized (segment) {
+                segment.put(key, value);
+            }
+        }
+    }
+}
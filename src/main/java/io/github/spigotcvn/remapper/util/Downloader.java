@@ -0,0 +1,197 @@
+package io.github.spigotcvn.remapper.util;
+
+import java.io.*;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Downloads files over HTTP, revalidating them with their ETag and modification date instead of
+ * fetching them again, and resuming interrupted downloads where they stopped.
+ * <p>
+ * Files are downloaded next to the target first and only moved into place once complete and verified,
+ * what the server said about them and their SHA-256 are kept in a {@code .meta} file beside them.
+ * A file whose contents no longer match that hash is downloaded again.
+ */
+public class Downloader {
+    /**
+     * How long a downloaded file is used before the server is asked whether it changed.
+     */
+    public static final long REVALIDATE_AFTER = TimeUnit.HOURS.toMillis(24);
+
+    private static final int CONNECT_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(15);
+    private static final int READ_TIMEOUT = (int) TimeUnit.SECONDS.toMillis(60);
+    private static final int ATTEMPTS = 3;
+
+    /**
+     * Makes sure the target holds the current contents of the url.
+     * @param url    The url to download
+     * @param target The file to download to
+     * @param maxAge How long ago the file may have been checked for it to be used without asking the server
+     * @return Whether the contents of the file changed, false if it was still up to date
+     * @throws IOException If the file could not be downloaded
+     */
+    public static boolean download(URL url, File target, long maxAge) throws IOException {
+        if (isFresh(target, maxAge)) return false;
+
+        File metaFile = getMetaFile(target);
+        Properties meta = readMeta(metaFile);
+        // a file that was changed or cut short since it was downloaded is fetched again as a whole
+        boolean valid = target.isFile() && Util.hashFile(target).equals(meta.getProperty("sha256"));
+
+        IOException failure = null;
+        for (int attempt = 0; attempt < ATTEMPTS; attempt++) {
+            try {
+                return fetch(url, target, metaFile, valid ? meta : new Properties());
+            } catch (IOException e) {
+                // the next attempt resumes from what was already downloaded
+                failure = e;
+                System.out.println("Download of " + url + " failed: " + e.getMessage() + ", retrying...");
+            }
+        }
+        throw failure;
+    }
+
+    /**
+     * @return Whether the file was downloaded and checked against the server less than maxAge ago
+     * @throws IOException If the meta file can't be read
+     */
+    public static boolean isFresh(File target, long maxAge) throws IOException {
+        Properties meta = readMeta(getMetaFile(target));
+        return target.isFile()
+                && String.valueOf(target.length()).equals(meta.getProperty("size"))
+                && meta.getProperty("checked") != null
+                && System.currentTimeMillis() - Long.parseLong(meta.getProperty("checked")) < maxAge;
+    }
+
+    private static File getMetaFile(File target) {
+        return new File(target.getParentFile(), target.getName() + ".meta");
+    }
+
+    private static boolean fetch(URL url, File target, File metaFile, Properties meta) throws IOException {
+        File partFile = new File(target.getParentFile(), target.getName() + ".part");
+        File partMetaFile = new File(target.getParentFile(), target.getName() + ".part.meta");
+        Properties partMeta = readMeta(partMetaFile);
+        String partValidator = partMeta.getProperty("etag", partMeta.getProperty("lastModified"));
+        long resumeFrom = partFile.isFile() && partValidator != null ? partFile.length() : 0;
+
+        HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+        connection.setConnectTimeout(CONNECT_TIMEOUT);
+        connection.setReadTimeout(READ_TIMEOUT);
+        if (meta.getProperty("etag") != null) connection.setRequestProperty("If-None-Match", meta.getProperty("etag"));
+        if (meta.getProperty("lastModified") != null) connection.setRequestProperty("If-Modified-Since", meta.getProperty("lastModified"));
+        if (resumeFrom > 0) {
+            connection.setRequestProperty("Range", "bytes=" + resumeFrom + "-");
+            // the rest is only sent if the file is still the one the part was downloaded from
+            connection.setRequestProperty("If-Range", partValidator);
+        }
+
+        try {
+            int status = connection.getResponseCode();
+            if (status == HttpURLConnection.HTTP_NOT_MODIFIED) {
+                meta.setProperty("checked", String.valueOf(System.currentTimeMillis()));
+                writeMeta(meta, metaFile);
+                return false;
+            }
+            if (status != HttpURLConnection.HTTP_OK && status != HttpURLConnection.HTTP_PARTIAL) {
+                throw new IOException("Server returned " + status + " for " + url);
+            }
+
+            boolean resumed = status == HttpURLConnection.HTTP_PARTIAL;
+            if (resumed && resumeFrom != rangeStart(connection)) {
+                // appending anything but the rest of the part would corrupt it, the next attempt starts over
+                Files.deleteIfExists(partFile.toPath());
+                Files.deleteIfExists(partMetaFile.toPath());
+                throw new IOException("Server resumed " + url + " at " + connection.getHeaderField("Content-Range")
+                        + " instead of " + resumeFrom + " bytes");
+            }
+            Properties newMeta = new Properties();
+            if (connection.getHeaderField("ETag") != null) newMeta.setProperty("etag", connection.getHeaderField("ETag"));
+            if (connection.getHeaderField("Last-Modified") != null) newMeta.setProperty("lastModified", connection.getHeaderField("Last-Modified"));
+            if (!resumed) {
+                partFile.getParentFile().mkdirs();
+                Files.deleteIfExists(partFile.toPath());
+                writeMeta(newMeta, partMetaFile);
+            }
+
+            long expectedSize = expectedSize(connection, resumed);
+            if (resumed) System.out.println("Resuming download of " + url + " at " + resumeFrom + " bytes...");
+            try (InputStream is = connection.getInputStream();
+                 OutputStream os = new FileOutputStream(partFile, resumed)) {
+                byte[] buffer = new byte[65536];
+                int bytesRead;
+                while ((bytesRead = is.read(buffer)) != -1) {
+                    os.write(buffer, 0, bytesRead);
+                }
+            }
+            if (expectedSize != -1 && partFile.length() != expectedSize) {
+                throw new IOException("Download of " + url + " ended after " + partFile.length() + " of " + expectedSize + " bytes");
+            }
+
+            newMeta.setProperty("size", String.valueOf(partFile.length()));
+            newMeta.setProperty("sha256", Util.hashFile(partFile));
+            newMeta.setProperty("checked", String.valueOf(System.currentTimeMillis()));
+            boolean changed = !newMeta.getProperty("sha256").equals(meta.getProperty("sha256"));
+
+            Files.move(partFile.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            writeMeta(newMeta, metaFile);
+            Files.deleteIfExists(partMetaFile.toPath());
+            return changed;
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    /**
+     * @return Where the content of a partial response starts, or -1 if the server didn't tell
+     */
+    private static long rangeStart(HttpURLConnection connection) {
+        // bytes <from>-<to>/<total>
+        String range = connection.getHeaderField("Content-Range");
+        if (range == null || !range.startsWith("bytes ")) return -1;
+        int dash = range.indexOf('-');
+        if (dash == -1) return -1;
+        try {
+            return Long.parseLong(range.substring("bytes ".length(), dash).trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * @return The size the whole file will have once downloaded, or -1 if the server didn't tell
+     */
+    private static long expectedSize(HttpURLConnection connection, boolean resumed) {
+        if (resumed) {
+            // bytes <from>-<to>/<total>
+            String range = connection.getHeaderField("Content-Range");
+            int slash = range == null ? -1 : range.lastIndexOf('/');
+            if (slash == -1 || range.endsWith("*")) return -1;
+            return Long.parseLong(range.substring(slash + 1).trim());
+        }
+        return connection.getContentLengthLong();
+    }
+
+    private static Properties readMeta(File metaFile) throws IOException {
+        Properties meta = new Properties();
+        if (metaFile.isFile()) {
+            try (Reader reader = Files.newBufferedReader(metaFile.toPath(), StandardCharsets.UTF_8)) {
+                meta.load(reader);
+            }
+        }
+        return meta;
+    }
+
+    private static void writeMeta(Properties meta, File metaFile) throws IOException {
+        metaFile.getParentFile().mkdirs();
+        File tmpFile = new File(metaFile.getParentFile(), metaFile.getName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tmpFile.toPath(), StandardCharsets.UTF_8)) {
+            meta.store(writer, null);
+        }
+        Files.move(tmpFile.toPath(), metaFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
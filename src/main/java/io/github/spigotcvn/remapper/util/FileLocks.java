@@ -0,0 +1,43 @@
+package io.github.spigotcvn.remapper.util;
+
+import java.io.File;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Exclusive locks on a lock file, held against other threads of this JVM and against other processes,
+ * like the builds of other plugins on the same machine.
+ */
+public class FileLocks {
+    // a file lock is held by the whole JVM, so threads of the same build are kept apart by these
+    private static final Map<String, ReentrantLock> LOCKS = new ConcurrentHashMap<>();
+
+    /**
+     * Runs the action while holding the lock, waiting until every other holder released it.
+     * @param lockFile The file to lock, it's created if it doesn't exist yet
+     * @param action   The action to run
+     * @return What the action returned
+     * @throws Exception If the lock file can't be locked, or the action failed
+     */
+    public static <T> T withLock(File lockFile, LockedAction<T> action) throws Exception {
+        ReentrantLock lock = LOCKS.computeIfAbsent(lockFile.getAbsolutePath(), path -> new ReentrantLock());
+        lock.lock();
+        try {
+            lockFile.getParentFile().mkdirs();
+            try (FileChannel channel = FileChannel.open(lockFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+                 FileLock ignored = channel.lock()) {
+                return action.run();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public interface LockedAction<T> {
+        T run() throws Exception;
+    }
+}
@@ -0,0 +1,352 @@
+package io.github.spigotcvn.remapper.util;
+
+import net.fabricmc.tinyremapper.IMappingProvider;
+import net.fabricmc.tinyremapper.NonClassCopyMode;
+import net.fabricmc.tinyremapper.OutputConsumerPath;
+import net.fabricmc.tinyremapper.TinyRemapper;
+import org.objectweb.asm.ClassReader;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.stream.Stream;
+import java.util.zip.Deflater;
+
+/**
+ * Remaps a jar with TinyRemapper while reusing the remapped bytes of classes that did not change.
+ * <p>
+ * Every class is keyed by a hash of its bytes, the mappings, and the hierarchy of its supertypes and of every
+ * class it refers to inside the jar, so a change to a class also invalidates everything extending or using it:
+ * a member accessed through a class may be inherited, and renamed, from anywhere up its hierarchy. Only the classes without a cached
+ * result are remapped, the rest is read as classpath so the inheritance still resolves.
+ * <p>
+ * Every mapping key has a directory of its own, so remaps with different mappings sharing a cache, like the
+ * intermediary and spigot passes of a composed remap, only prune their own classes. The directories of keys
+ * that haven't been used for a week are deleted.
+ */
+public class IncrementalRemapper {
+    private static final int CONSTANT_CLASS = 7;
+    private static final long STALE_AFTER = TimeUnit.DAYS.toMillis(7);
+
+    private final File rootDir;
+    private final File cacheDir;
+    private final String mappingKey;
+
+    /**
+     * @param cacheDir   The directory the remapped classes are stored in
+     * @param mappingKey Identifies the mappings and classpath, classes are only reused for the same key
+     */
+    public IncrementalRemapper(File cacheDir, String mappingKey) {
+        this.rootDir = cacheDir;
+        this.cacheDir = new File(cacheDir, Util.toHex(digest().digest(mappingKey.getBytes(StandardCharsets.UTF_8))).substring(0, 16));
+        this.mappingKey = mappingKey;
+    }
+
+    /**
+     * Remaps the jar, reusing the cached classes where possible.
+     * @return false if the jar can't be remapped incrementally (multi-release jars), nothing is written then
+     * @throws IOException If an error occurs while reading or writing the jars
+     */
+    public boolean remap(IMappingProvider mappings, Path[] classpath, File jarFile, File resultJarFile) throws IOException {
+        Map<String, InputClass> classes = readClasses(jarFile);
+        if (classes == null) return false;
+
+        List<InputClass> misses = new ArrayList<>();
+        for (InputClass inputClass : classes.values()) {
+            computeKey(inputClass, classes);
+            File cached = getCacheFile(inputClass.key);
+            if (cached.exists()) {
+                try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cached)))) {
+                    inputClass.remappedName = in.readUTF();
+                    inputClass.remappedBytes = new byte[in.readInt()];
+                    in.readFully(inputClass.remappedBytes);
+                }
+            } else {
+                misses.add(inputClass);
+            }
+        }
+        System.out.println("Reusing " + (classes.size() - misses.size()) + " cached classes, remapping " + misses.size() + "...");
+        removeUnused(classes.values());
+        removeStaleKeys();
+
+        // the class renames are recorded to find out which input class every output belongs to
+        Map<String, String> classMappings = new HashMap<>();
+        TinyRemapper remapper = TinyRemapper.newRemapper()
+                .withMappings(out -> mappings.load(new RecordingAcceptor(out, classMappings)))
+                .ignoreConflicts(true)
+                .build();
+
+        File changedJar = new File(resultJarFile.getParentFile(), resultJarFile.getName() + ".changed.jar");
+        File unchangedJar = new File(resultJarFile.getParentFile(), resultJarFile.getName() + ".unchanged.jar");
+        try (OutputConsumerPath outputConsumer = new OutputConsumerPath.Builder(resultJarFile.toPath()).build()) {
+            outputConsumer.addNonClassFiles(jarFile.toPath(), NonClassCopyMode.FIX_META_INF, remapper);
+
+            if (!misses.isEmpty()) {
+                writeClasses(changedJar, misses);
+                List<InputClass> hits = new ArrayList<>(classes.values());
+                hits.removeAll(misses);
+                writeClasses(unchangedJar, hits);
+
+                remapper.readInputs(changedJar.toPath());
+                remapper.readClassPath(unchangedJar.toPath());
+                remapper.readClassPath(classpath);
+
+                Map<String, InputClass> byRemappedName = new HashMap<>();
+                for (InputClass miss : misses) {
+                    byRemappedName.put(mapClassName(miss.name, classMappings), miss);
+                }
+                remapper.apply((name, bytes) -> {
+                    InputClass inputClass = byRemappedName.get(name);
+                    if (inputClass == null) {
+                        outputConsumer.accept(name, bytes);
+                        return;
+                    }
+                    inputClass.remappedName = name;
+                    inputClass.remappedBytes = bytes;
+                    store(inputClass);
+                });
+            }
+
+            for (InputClass inputClass : classes.values()) {
+                if (inputClass.remappedBytes != null) {
+                    outputConsumer.accept(inputClass.remappedName, inputClass.remappedBytes);
+                }
+            }
+        } finally {
+            remapper.finish();
+            Files.deleteIfExists(changedJar.toPath());
+            Files.deleteIfExists(unchangedJar.toPath());
+        }
+        return true;
+    }
+
+    private Map<String, InputClass> readClasses(File jarFile) throws IOException {
+        Map<String, InputClass> classes = new LinkedHashMap<>();
+        try (JarFile jar = new JarFile(jarFile)) {
+            Enumeration<JarEntry> entries = jar.entries();
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                if (entry.isDirectory() || !entry.getName().endsWith(".class")) continue;
+                // versioned classes share their names with the base ones
+                if (entry.getName().startsWith("META-INF/")) return null;
+
+                InputClass inputClass = new InputClass();
+                try (InputStream is = jar.getInputStream(entry)) {
+                    inputClass.bytes = JarUtil.readAllBytes(is);
+                }
+                ClassReader reader = new ClassReader(inputClass.bytes);
+                inputClass.name = reader.getClassName();
+                inputClass.superName = reader.getSuperName();
+                inputClass.interfaces = reader.getInterfaces();
+                inputClass.references = readClassReferences(reader);
+                classes.put(inputClass.name, inputClass);
+            }
+        }
+        return classes;
+    }
+
+    private String computeKey(InputClass inputClass, Map<String, InputClass> classes) {
+        if (inputClass.key != null) return inputClass.key;
+
+        MessageDigest md = digest();
+        md.update(computeHierarchyKey(inputClass, classes).getBytes(StandardCharsets.UTF_8));
+        for (String reference : new TreeSet<>(inputClass.references)) {
+            InputClass referenced = classes.get(reference);
+            if (referenced != null && referenced != inputClass) {
+                md.update(computeHierarchyKey(referenced, classes).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        inputClass.key = Util.toHex(md.digest());
+        return inputClass.key;
+    }
+
+    /**
+     * @return A hash of the class bytes, the mappings and the hierarchy keys of its supertypes inside the jar
+     */
+    private String computeHierarchyKey(InputClass inputClass, Map<String, InputClass> classes) {
+        if (inputClass.hierarchyKey != null) return inputClass.hierarchyKey;
+
+        MessageDigest md = digest();
+        md.update(mappingKey.getBytes(StandardCharsets.UTF_8));
+        md.update(inputClass.bytes);
+
+        List<String> supertypes = new ArrayList<>(Arrays.asList(inputClass.interfaces));
+        if (inputClass.superName != null) supertypes.add(inputClass.superName);
+        for (String supertype : supertypes) {
+            InputClass superClass = classes.get(supertype);
+            if (superClass != null) {
+                md.update(computeHierarchyKey(superClass, classes).getBytes(StandardCharsets.UTF_8));
+            }
+        }
+
+        inputClass.hierarchyKey = Util.toHex(md.digest());
+        return inputClass.hierarchyKey;
+    }
+
+    private static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return The classes in the constant pool of the class, everything it can access members through
+     */
+    private static Set<String> readClassReferences(ClassReader reader) {
+        Set<String> references = new HashSet<>();
+        char[] buffer = new char[reader.getMaxStringLength()];
+        for (int i = 1; i < reader.getItemCount(); i++) {
+            int offset = reader.getItem(i);
+            // the second slot of longs and doubles has no offset
+            if (offset != 0 && reader.readByte(offset - 1) == CONSTANT_CLASS) {
+                references.add(reader.readUTF8(offset, buffer));
+            }
+        }
+        return references;
+    }
+
+    /**
+     * Deletes the cached classes that none of the current classes are keyed by, the directory of the key only holds the last build.
+     */
+    private void removeUnused(Collection<InputClass> classes) throws IOException {
+        Set<String> used = new HashSet<>();
+        for (InputClass inputClass : classes) {
+            used.add(inputClass.key);
+        }
+
+        File[] dirs = cacheDir.listFiles(File::isDirectory);
+        if (dirs == null) return;
+        for (File dir : dirs) {
+            File[] files = dir.listFiles();
+            if (files == null) continue;
+            for (File file : files) {
+                if (!used.contains(file.getName())) Files.deleteIfExists(file.toPath());
+            }
+            String[] left = dir.list();
+            if (left != null && left.length == 0) Files.deleteIfExists(dir.toPath());
+        }
+    }
+
+    /**
+     * Deletes the directories of the other mapping keys that weren't used for a while.
+     */
+    private void removeStaleKeys() throws IOException {
+        cacheDir.mkdirs();
+        long now = System.currentTimeMillis();
+        cacheDir.setLastModified(now);
+
+        File[] dirs = rootDir.listFiles(File::isDirectory);
+        if (dirs == null) return;
+        for (File dir : dirs) {
+            if (dir.equals(cacheDir) || now - dir.lastModified() < STALE_AFTER) continue;
+            try (Stream<Path> paths = Files.walk(dir.toPath())) {
+                // the files before the directories they are in
+                for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                    Files.deleteIfExists(path);
+                }
+            }
+        }
+    }
+
+    private File getCacheFile(String key) {
+        return new File(cacheDir, key.substring(0, 2) + File.separator + key);
+    }
+
+    private void store(InputClass inputClass) {
+        File cacheFile = getCacheFile(inputClass.key);
+        cacheFile.getParentFile().mkdirs();
+        File tmpFile = new File(cacheFile.getParentFile(), cacheFile.getName() + ".tmp");
+        try {
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+                out.writeUTF(inputClass.remappedName);
+                out.writeInt(inputClass.remappedBytes.length);
+                out.write(inputClass.remappedBytes);
+            }
+            Files.move(tmpFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static void writeClasses(File jarFile, Collection<InputClass> classes) throws IOException {
+        try (JarOutputStream jos = new JarOutputStream(new BufferedOutputStream(new FileOutputStream(jarFile), 65536))) {
+            // only read back by the remapper, so there is no point in compressing it
+            jos.setLevel(Deflater.NO_COMPRESSION);
+            for (InputClass inputClass : classes) {
+                jos.putNextEntry(new JarEntry(inputClass.name + ".class"));
+                jos.write(inputClass.bytes);
+                jos.closeEntry();
+            }
+        }
+    }
+
+    private static String mapClassName(String name, Map<String, String> classMappings) {
+        String mapped = classMappings.get(name);
+        if (mapped != null) return mapped;
+
+        int idx = name.lastIndexOf('$');
+        if (idx == -1) return name;
+        return mapClassName(name.substring(0, idx), classMappings) + name.substring(idx);
+    }
+
+    private static class InputClass {
+        private String name;
+        private String superName;
+        private String[] interfaces;
+        private Set<String> references;
+        private byte[] bytes;
+        private String hierarchyKey;
+        private String key;
+
+        private String remappedName;
+        private byte[] remappedBytes;
+    }
+
+    private static class RecordingAcceptor implements IMappingProvider.MappingAcceptor {
+        private final IMappingProvider.MappingAcceptor delegate;
+        private final Map<String, String> classMappings;
+
+        private RecordingAcceptor(IMappingProvider.MappingAcceptor delegate, Map<String, String> classMappings) {
+            this.delegate = delegate;
+            this.classMappings = classMappings;
+        }
+
+        @Override
+        public void acceptClass(String srcName, String dstName) {
+            classMappings.put(srcName, dstName);
+            delegate.acceptClass(srcName, dstName);
+        }
+
+        @Override
+        public void acceptMethod(IMappingProvider.Member method, String dstName) {
+            delegate.acceptMethod(method, dstName);
+        }
+
+        @Override
+        public void acceptMethodArg(IMappingProvider.Member method, int lvIndex, String dstName) {
+            delegate.acceptMethodArg(method, lvIndex, dstName);
+        }
+
+        @Override
+        public void acceptMethodVar(IMappingProvider.Member method, int lvIndex, int startOpIdx, int asmIndex, String dstName) {
+            delegate.acceptMethodVar(method, lvIndex, startOpIdx, asmIndex, dstName);
+        }
+
+        @Override
+        public void acceptField(IMappingProvider.Member field, String dstName) {
+            delegate.acceptField(field, dstName);
+        }
+    }
+}
@@ -0,0 +1,228 @@
+package io.github.spigotcvn.remapper.util;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * What is known about a jar after reading it once: its hash, packages, entry checksums, class count
+ * and whether the net.minecraft.server package is relocated, and to which CraftBukkit notation.
+ * <p>
+ * Fingerprints are kept in memory for as long as the daemon lives and optionally on disk, both are
+ * only used while the size and modification time of the jar still match.
+ */
+public class JarFingerprint {
+    private static final int MAGIC = 0x43564E46; // CVNF
+    private static final int FORMAT_VERSION = 1;
+    private static final String RELOCATED_PREFIX = "net/minecraft/server/v1_";
+
+    private static final Map<String, JarFingerprint> FINGERPRINTS = new ConcurrentHashMap<>();
+
+    private final long size;
+    private final long lastModified;
+    private final String hash;
+    private final int classCount;
+    private final String cbNotation;
+    private final Set<String> packages;
+    private final Map<String, Long> entryHashes;
+
+    private JarFingerprint(long size, long lastModified, String hash, int classCount, String cbNotation,
+                           Set<String> packages, Map<String, Long> entryHashes) {
+        this.size = size;
+        this.lastModified = lastModified;
+        this.hash = hash;
+        this.classCount = classCount;
+        this.cbNotation = cbNotation;
+        this.packages = packages;
+        this.entryHashes = entryHashes;
+    }
+
+    /**
+     * Gets the fingerprint of a jar, reading the jar only if it changed since it was last read.
+     * @param jarFile The jar file
+     * @return The fingerprint of the jar as it is now
+     * @throws IOException If an error occurs while reading the jar
+     */
+    public static JarFingerprint of(File jarFile) throws IOException {
+        return of(jarFile, null);
+    }
+
+    /**
+     * Gets the fingerprint of a jar, also keeping it in the given directory so other daemons don't read the jar again.
+     * @param jarFile  The jar file
+     * @param cacheDir The directory to keep the fingerprint in, or null to only keep it in memory
+     * @return The fingerprint of the jar as it is now
+     * @throws IOException If an error occurs while reading the jar or the cached fingerprint
+     */
+    public static JarFingerprint of(File jarFile, File cacheDir) throws IOException {
+        String path = jarFile.getAbsolutePath();
+        JarFingerprint fingerprint = FINGERPRINTS.get(path);
+        if (fingerprint != null && fingerprint.matches(jarFile)) return fingerprint;
+
+        File cacheFile = cacheDir == null ? null : new File(cacheDir,
+                jarFile.getName() + "-" + Util.toHex(digest().digest(path.getBytes(StandardCharsets.UTF_8))).substring(0, 16) + ".fp");
+        fingerprint = cacheFile != null && cacheFile.exists() ? read(cacheFile) : null;
+        if (fingerprint == null || !fingerprint.matches(jarFile)) {
+            fingerprint = scan(jarFile);
+            if (cacheFile != null) write(fingerprint, cacheFile);
+        }
+
+        FINGERPRINTS.put(path, fingerprint);
+        return fingerprint;
+    }
+
+    private boolean matches(File jarFile) {
+        return jarFile.length() == size && jarFile.lastModified() == lastModified;
+    }
+
+    private static JarFingerprint scan(File jarFile) throws IOException {
+        long size = jarFile.length();
+        long lastModified = jarFile.lastModified();
+
+        MessageDigest md = digest();
+        try (InputStream is = new FileInputStream(jarFile)) {
+            byte[] buffer = new byte[65536];
+            int bytesRead;
+            while ((bytesRead = is.read(buffer)) != -1) {
+                md.update(buffer, 0, bytesRead);
+            }
+        }
+
+        int classCount = 0;
+        String cbNotation = null;
+        Set<String> packages = new TreeSet<>();
+        Map<String, Long> entryHashes = new LinkedHashMap<>();
+        // everything else comes from the central directory, no entry has to be inflated
+        try (JarFile jar = new JarFile(jarFile)) {
+            Enumeration<JarEntry> entries = jar.entries();
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                String name = entry.getName();
+                if (entry.isDirectory()) continue;
+
+                entryHashes.put(name, entry.getCrc());
+                if (!name.endsWith(".class")) continue;
+
+                classCount++;
+                int slash = name.lastIndexOf('/');
+                packages.add(slash == -1 ? "" : name.substring(0, slash));
+                if (cbNotation == null && name.startsWith(RELOCATED_PREFIX)) {
+                    int end = name.indexOf('/', RELOCATED_PREFIX.length());
+                    if (end != -1) cbNotation = name.substring("net/minecraft/server/v".length(), end);
+                }
+            }
+        }
+
+        return new JarFingerprint(size, lastModified, Util.toHex(md.digest()), classCount, cbNotation,
+                Collections.unmodifiableSet(packages), Collections.unmodifiableMap(entryHashes));
+    }
+
+    private static JarFingerprint read(File cacheFile) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(cacheFile), 65536))) {
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION) return null;
+
+            long size = in.readLong();
+            long lastModified = in.readLong();
+            String hash = in.readUTF();
+            int classCount = in.readInt();
+            String cbNotation = in.readBoolean() ? in.readUTF() : null;
+
+            Set<String> packages = new TreeSet<>();
+            int packageCount = in.readInt();
+            for (int i = 0; i < packageCount; i++) {
+                packages.add(in.readUTF());
+            }
+            Map<String, Long> entryHashes = new LinkedHashMap<>();
+            int entryCount = in.readInt();
+            for (int i = 0; i < entryCount; i++) {
+                entryHashes.put(in.readUTF(), in.readLong());
+            }
+
+            return new JarFingerprint(size, lastModified, hash, classCount, cbNotation,
+                    Collections.unmodifiableSet(packages), Collections.unmodifiableMap(entryHashes));
+        } catch (EOFException e) {
+            // a fingerprint cut short is read again from the jar
+            return null;
+        }
+    }
+
+    private static void write(JarFingerprint fingerprint, File cacheFile) throws IOException {
+        cacheFile.getParentFile().mkdirs();
+        File tmpFile = new File(cacheFile.getParentFile(), cacheFile.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 65536))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(fingerprint.size);
+            out.writeLong(fingerprint.lastModified);
+            out.writeUTF(fingerprint.hash);
+            out.writeInt(fingerprint.classCount);
+            out.writeBoolean(fingerprint.cbNotation != null);
+            if (fingerprint.cbNotation != null) out.writeUTF(fingerprint.cbNotation);
+
+            out.writeInt(fingerprint.packages.size());
+            for (String pkg : fingerprint.packages) {
+                out.writeUTF(pkg);
+            }
+            out.writeInt(fingerprint.entryHashes.size());
+            for (Map.Entry<String, Long> entry : fingerprint.entryHashes.entrySet()) {
+                out.writeUTF(entry.getKey());
+                out.writeLong(entry.getValue());
+            }
+        }
+        Files.move(tmpFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static MessageDigest digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @return The SHA-256 hash of the jar, the same as {@link Util#hashFile(File)}
+     */
+    public String getHash() {
+        return hash;
+    }
+
+    public int getClassCount() {
+        return classCount;
+    }
+
+    /**
+     * @return Whether net.minecraft.server is relocated into a versioned package, like in servers before 1.17
+     */
+    public boolean isRelocated() {
+        return cbNotation != null;
+    }
+
+    /**
+     * @return The CraftBukkit notation without the leading v, e.g. {@code 1_16_R3}, or null if the jar isn't relocated
+     */
+    public String getCBNotation() {
+        return cbNotation;
+    }
+
+    /**
+     * @return The packages that contain classes, as internal names
+     */
+    public Set<String> getPackages() {
+        return packages;
+    }
+
+    /**
+     * @return The CRC-32 of every file in the jar, as stored in its central directory
+     */
+    public Map<String, Long> getEntryHashes() {
+        return entryHashes;
+    }
+}
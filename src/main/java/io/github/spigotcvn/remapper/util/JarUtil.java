@@ -2,10 +2,8 @@ package io.github.spigotcvn.remapper.util;
 
 import java.io.*;
 import java.nio.file.Files;
-import java.util.Enumeration;
 import java.util.jar.JarEntry;
 import java.util.jar.JarFile;
-import java.util.jar.JarOutputStream;
 
 public class JarUtil {
     public static void inspectJar(File jarFile) {
@@ -17,9 +15,7 @@ public class JarUtil {
     }
 
     public static void repackJar(File resultJarFile, File unarchiveDir) throws IOException {
-        try (FileOutputStream fos = new FileOutputStream(resultJarFile);
-             JarOutputStream jos = new JarOutputStream(fos)) {
-
+        try (ParallelJarWriter writer = new ParallelJarWriter(resultJarFile)) {
             // Iterate over all files in the unarchive directory and add them to the JAR
             Util.iterateOverFiles(file -> {
                 try {
@@ -27,14 +23,12 @@ public class JarUtil {
                         .relativize(file.toPath())
                         .toString()
                         .replace(File.separator, "/");
-                    JarEntry entry = new JarEntry(entryName);
-                    jos.putNextEntry(entry);
-                    Files.copy(file.toPath(), jos);
-                    jos.closeEntry();
+                    writer.putEntry(entryName, Files.readAllBytes(file.toPath()), file.lastModified());
                 } catch (IOException e) {
                     throw new RuntimeException(e);
                 }
             }, unarchiveDir);
+            writer.finish();
         }
 
         Util.iterateOverFiles(File::delete, unarchiveDir);
@@ -77,45 +71,40 @@ public class JarUtil {
         }
     }
 
-    public static boolean isRelocated(File jarFile) throws IOException {
-        try (JarFile jar = new JarFile(jarFile)) {
-            Enumeration<JarEntry> entries = jar.entries();
-
-            while (entries.hasMoreElements()) {
-                JarEntry entry = entries.nextElement();
-                String name = entry.getName();
-
-                if (name.startsWith("net/minecraft/server/1_")) {
-                    return true;
-                }
+    public static void copyEntry(JarFile jar, JarEntry entry, ParallelJarWriter writer) throws IOException {
+        if (entry.isDirectory()) {
+            writer.putDirectory(entry.getName(), entry.getTime());
+            return;
+        }
+        try (InputStream is = jar.getInputStream(entry)) {
+            writer.putEntry(entry.getName(), readAllBytes(is), entry.getTime());
+        }
+    }
 
-                if (name.startsWith("net/minecraft/server/") && !name.startsWith("net/minecraft/server/1_")) {
-                    return false;
-                }
-            }
+    public static byte[] readAllBytes(InputStream is) throws IOException {
+        ByteArrayOutputStream os = new ByteArrayOutputStream(Math.max(is.available(), 8192));
+        byte[] buffer = new byte[65536];
+        int bytesRead;
+        while ((bytesRead = is.read(buffer)) != -1) {
+            os.write(buffer, 0, bytesRead);
         }
+        return os.toByteArray();
+    }
 
-        return false;
+    /**
+     * @see JarFingerprint#isRelocated()
+     */
+    public static boolean isRelocated(File jarFile) throws IOException {
+        return JarFingerprint.of(jarFile).isRelocated();
     }
 
+    /**
+     * Finds the CraftBukkit package notation of a server jar, from the relocated net.minecraft.server package.
+     * @param jarFile The spigot server jar
+     * @return The notation without the leading v, e.g. {@code 1_16_R3}, or null if the jar isn't relocated
+     * @throws IOException If an error occurs while reading the jar
+     */
     public static String getCBNotation(File jarFile) throws IOException {
-        try (JarFile jar = new JarFile(jarFile)) {
-            Enumeration<JarEntry> entries = jar.entries();
-
-            while (entries.hasMoreElements()) {
-                JarEntry entry = entries.nextElement();
-                String name = entry.getName();
-
-                if (name.startsWith("net/minecraft/server/")) {
-                    String newName = name.replace("net/minecraft/server/", "");
-                    String[] parts = newName.split("/");
-                    if (parts.length > 0) {
-                        return parts[0];
-                    }
-                }
-            }
-        }
-
-        return null;
+        return JarFingerprint.of(jarFile).getCBNotation();
     }
 }
@@ -6,26 +6,34 @@ package io.github.spigotcvn.remapper.util;
  * The original file is licensed under the GNU General Public License v3.0.
  */
 
-import com.google.common.collect.BiMap;
-import com.google.common.collect.HashBiMap;
-
+import java.io.BufferedWriter;
 import java.io.File;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.Map;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
+import java.util.function.IntConsumer;
+import java.util.stream.IntStream;
+
+/**
+ * Names are interned in a {@link SymbolTable} shared by the class maps and the member lines,
+ * which are only turned back into text while they are written.
+ * <p>
+ * Descriptors are translated in parallel shards, which only read the table. What they produce
+ * is interned in a sequential pass afterwards, so the table is never shared between writers.
+ */
 public class MapUtil {
+    private static final int SHARD_SIZE = 2048;
 
-    private static final Pattern MEMBER_PATTERN = Pattern.compile("(?:\\d+:\\d+:)?(.*?) (.*?) -> (.*)");
-    //
     private List<String> header = new ArrayList<>();
-    private final BiMap<String, String> obf2Buk = HashBiMap.create();
-    private final BiMap<String, String> moj2Obf = HashBiMap.create();
+    private final SymbolTable symbols = new SymbolTable();
+    private final SymbolTable.ClassMap obf2Buk = new SymbolTable.ClassMap(symbols);
+    private final SymbolTable.ClassMap moj2Obf = new SymbolTable.ClassMap(symbols);
 
     public void loadBuk(File bukClasses) throws IOException {
         for (String line : Files.readAllLines(bukClasses.toPath())) {
@@ -42,219 +50,209 @@ public class MapUtil {
     }
 
     public void makeFieldMaps(File mojIn, File fields, boolean includeMethods) throws IOException {
-        if (includeMethods) {
-            for (String line : Files.readAllLines(mojIn.toPath())) {
-                if (line.startsWith("#")) {
-                    continue;
-                }
-
-                if (line.endsWith(":")) {
-                    String[] parts = line.split(" -> ");
-                    String orig = parts[0].replace('.', '/');
-                    String obf = parts[1].substring(0, parts[1].length() - 1).replace('.', '/');
-
-                    moj2Obf.put(orig, obf);
+        Members outFields = new Members();
+        // method descriptors can refer to classes further down the file, so they are translated once it's fully read,
+        // the types are kept in a table of their own as they aren't needed afterwards
+        SymbolTable types = new SymbolTable();
+        Members methods = new Members();
+        DescriptorTranslator classes = new DescriptorTranslator(obf2Buk.asMap());
+
+        ProGuardParser.parse(mojIn, new ProGuardParser.Visitor() {
+            private int currentClass = -1;
+
+            @Override
+            public void visitClass(String mojName, String obfName) {
+                if (includeMethods) {
+                    moj2Obf.put(mojName, obfName);
                 }
+                currentClass = symbols.classId(classes.mapClass(obfName));
             }
-        }
 
-        List<String> outFields = new ArrayList<>(header);
+            @Override
+            public void visitField(String type, String mojName, String obfName) {
+                if (currentClass == -1 || mojName.equals(obfName) || mojName.contains("$")) {
+                    return;
+                }
+                if (!includeMethods && (obfName.equals("if") || obfName.equals("do"))) {
+                    obfName += "_";
+                }
 
-        String currentClass = null;
-        outer:
-        for (String line : Files.readAllLines(mojIn.toPath())) {
-            if (line.startsWith("#")) {
-                continue;
+                outFields.add(currentClass, symbols.symbol(obfName), -1, symbols.symbol(mojName));
             }
-            line = line.trim();
 
-            if (line.endsWith(":")) {
-                currentClass = null;
+            @Override
+            public void visitMethod(String returnType, String mojName, String args, String obfName) {
+                if (!includeMethods || currentClass == -1) {
+                    return;
+                }
+                if (obfName.equals(mojName) || mojName.contains("$") || obfName.equals("<init>") || obfName.equals("<clinit>")) {
+                    return;
+                }
 
-                String[] parts = line.split(" -> ");
-                String orig = parts[0].replace('.', '/');
-                String obf = parts[1].substring(0, parts[1].length() - 1).replace('.', '/');
+                methods.add(currentClass, symbols.symbol(obfName), types.symbol(args + ")" + returnType), symbols.symbol(mojName));
+            }
+        });
+
+        DescriptorTranslator descriptors = new DescriptorTranslator(moj2Obf.asMap(), obf2Buk.asMap());
+        String[] descs = new String[methods.size()];
+        forEachSharded(methods.size(), i -> {
+            String signature = types.getSymbol(methods.get(i, 2));
+            int close = signature.lastIndexOf(')');
+            descs[i] = descriptors.toMethodDesc(signature.substring(0, close), signature.substring(close + 1));
+        });
+        for (int i = 0; i < descs.length; i++) {
+            outFields.add(methods.get(i, 0), methods.get(i, 1), symbols.symbol(descs[i]), methods.get(i, 3));
+        }
 
-                String buk = deobfClass(obf, obf2Buk);
-                if (buk == null) {
-                    continue;
+        // every part of a line sorts before the next one, so sorting the parts sorts the lines
+        int[] classRanks = symbols.rankClasses();
+        int[] symbolRanks = symbols.rankSymbols();
+        Integer[] order = new Integer[outFields.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.parallelSort(order, Comparator
+                .<Integer>comparingInt(i -> classRanks[outFields.get(i, 0)])
+                .thenComparingInt(i -> symbolRanks[outFields.get(i, 1)])
+                .thenComparingInt(i -> symbolRanks[outFields.get(i, outFields.get(i, 2) == -1 ? 3 : 2)])
+                .thenComparingInt(i -> outFields.get(i, 2) == -1 ? -1 : symbolRanks[outFields.get(i, 3)]));
+        List<String> sortedHeader = new ArrayList<>(header);
+        Collections.sort(sortedHeader);
+
+        try (BufferedWriter writer = Files.newBufferedWriter(fields.toPath(), StandardCharsets.UTF_8)) {
+            int nextHeader = 0;
+            for (Integer i : order) {
+                String line = outFields.toLine(i);
+                while (nextHeader < sortedHeader.size() && sortedHeader.get(nextHeader).compareTo(line) <= 0) {
+                    writeLine(writer, sortedHeader.get(nextHeader++));
                 }
+                writeLine(writer, line);
+            }
+            while (nextHeader < sortedHeader.size()) {
+                writeLine(writer, sortedHeader.get(nextHeader++));
+            }
+        }
+    }
 
-                currentClass = buk;
-            } else if (currentClass != null) {
-                Matcher matcher = MEMBER_PATTERN.matcher(line);
-                matcher.find();
+    public void makeCombinedMaps(File out, File... members) throws IOException {
+        DescriptorTranslator translator = new DescriptorTranslator(obf2Buk.inverse());
 
-                String obf = matcher.group(3);
-                String nameDesc = matcher.group(2);
-                if (!nameDesc.contains("(")) {
-                    if (nameDesc.equals(obf) || nameDesc.contains("$")) {
-                        continue;
+        try (BufferedWriter writer = Files.newBufferedWriter(out.toPath(), StandardCharsets.UTF_8)) {
+            for (String line : header) {
+                writeLine(writer, line);
+            }
+            for (Map.Entry<String, String> map : obf2Buk.asMap().entrySet()) {
+                writeLine(writer, map.getKey() + " " + map.getValue());
+            }
+
+            for (File member : members) {
+                List<String> lines = Files.readAllLines(member.toPath());
+                // the lines are written right away, so they are kept as text instead of being interned
+                String[] combined = new String[lines.size()];
+                forEachSharded(lines.size(), i -> {
+                    String line = lines.get(i);
+                    if (line.startsWith("#")) {
+                        return;
                     }
-                    if (!includeMethods && (obf.equals("if") || obf.equals("do"))) {
-                        obf += "_";
+                    line = line.trim();
+
+                    String[] split = line.split(" ");
+                    if (split.length == 3) {
+                        String clazz = split[0];
+                        String orig = split[1];
+                        String targ = split[2];
+
+                        combined[i] = translator.mapClass(clazz) + " " + orig + " " + targ;
+                    } else if (split.length == 4) {
+                        String clazz = split[0];
+                        String orig = split[1];
+                        String desc = split[2];
+                        String targ = split[3];
+
+                        combined[i] = translator.mapClass(clazz) + " " + orig + " " + translator.mapMethodDesc(desc) + " " + targ;
                     }
+                });
 
-                    outFields.add(currentClass + " " + obf + " " + nameDesc);
-                } else if (includeMethods) {
-                    String sig = csrgDesc(moj2Obf, obf2Buk, nameDesc.substring(nameDesc.indexOf('(')), matcher.group(1));
-                    String mojName = nameDesc.substring(0, nameDesc.indexOf('('));
-
-                    if (obf.equals(mojName) || mojName.contains("$") || obf.equals("<init>") || obf.equals("<clinit>")) {
-                        continue;
+                for (String line : combined) {
+                    // lines that are skipped are left empty
+                    if (line != null) {
+                        writeLine(writer, line);
                     }
-                    outFields.add(currentClass + " " + obf + " " + sig + " " + mojName);
                 }
             }
         }
-
-        Collections.sort(outFields);
-        Files.write(fields.toPath(), outFields);
     }
 
-    public void makeCombinedMaps(File out, File... members) throws IOException {
-        List<String> combined = new ArrayList<>(header);
-
-        for (Map.Entry<String, String> map : obf2Buk.entrySet()) {
-            combined.add(map.getKey() + " " + map.getValue());
-        }
+    private static void writeLine(BufferedWriter writer, String line) throws IOException {
+        // the same line separator as Files.write
+        writer.write(line);
+        writer.newLine();
+    }
 
-        for (File member : members) {
-            for (String line : Files.readAllLines(member.toPath())) {
-                if (line.startsWith("#")) {
-                    continue;
-                }
-                line = line.trim();
-
-                String[] split = line.split(" ");
-                if (split.length == 3) {
-                    String clazz = split[0];
-                    String orig = split[1];
-                    String targ = split[2];
-
-                    combined.add(deobfClass(clazz, obf2Buk.inverse()) + " " + orig + " " + targ);
-                } else if (split.length == 4) {
-                    String clazz = split[0];
-                    String orig = split[1];
-                    String desc = split[2];
-                    String targ = split[3];
-
-                    combined.add(deobfClass(clazz, obf2Buk.inverse()) + " " + orig + " " + toObf(desc, obf2Buk.inverse()) + " " + targ);
-                }
+    /**
+     * Runs the action for every index in shards on the common fork/join pool.
+     * The action must not add to the symbol table, only read it.
+     */
+    private static void forEachSharded(int count, IntConsumer action) {
+        int shards = (count + SHARD_SIZE - 1) / SHARD_SIZE;
+        IntStream.range(0, shards).parallel().forEach(shard -> {
+            int end = Math.min(count, (shard + 1) * SHARD_SIZE);
+            for (int i = shard * SHARD_SIZE; i < end; i++) {
+                action.accept(i);
             }
-        }
-
-        Files.write(out.toPath(), combined);
+        });
     }
 
     public static String deobfClass(String obf, Map<String, String> classMaps) {
-        String buk = classMaps.get(obf);
-        if (buk == null) {
-            StringBuilder inner = new StringBuilder();
-
-            while (buk == null) {
-                int idx = obf.lastIndexOf('$');
-                if (idx == -1) {
-                    // initially this returned null, but that caused it to behave
-                    // in a strange way, so we are just going to return the original value
-                    return obf;
-                }
-                inner.insert(0, obf.substring(idx));
-                obf = obf.substring(0, idx);
+        return DescriptorTranslator.deobfClass(obf, classMaps);
+    }
 
-                buk = classMaps.get(obf);
-            }
+    public static String toObf(String desc, Map<String, String> map) {
+        return new DescriptorTranslator(0, map).mapMethodDesc(desc);
+    }
 
-            buk += inner;
-        }
-        return buk;
+    public static String obfType(String desc, Map<String, String> map, StringBuilder out) {
+        return desc.substring(DescriptorTranslator.mapType(desc, 0, out, Collections.singletonList(map)));
     }
 
-    public static String toObf(String desc, Map<String, String> map) {
-        desc = desc.substring(1);
-        StringBuilder out = new StringBuilder("(");
-        if (desc.charAt(0) == ')') {
-            desc = desc.substring(1);
-            out.append(')');
+    /**
+     * Member lines as the ids of their owner class, name, descriptor (-1 for fields) and target name.
+     */
+    private class Members {
+        private static final int STRIDE = 4;
+
+        private int[] data;
+        private int size;
+
+        private Members() {
+            this.data = new int[1024 * STRIDE];
         }
-        while (desc.length() > 0) {
-            desc = obfType(desc, map, out);
-            if (desc.length() > 0 && desc.charAt(0) == ')') {
-                desc = desc.substring(1);
-                out.append(')');
-            }
+
+        private void add(int owner, int name, int desc, int target) {
+            if ((size + 1) * STRIDE > data.length) data = Arrays.copyOf(data, data.length * 2);
+            set(size++, owner, name, desc, target);
         }
-        return out.toString();
-    }
 
-    public static String obfType(String desc, Map<String, String> map, StringBuilder out) {
-        int size = 1;
-        switch (desc.charAt(0)) {
-            case 'B':
-            case 'C':
-            case 'D':
-            case 'F':
-            case 'I':
-            case 'J':
-            case 'S':
-            case 'Z':
-            case 'V':
-                out.append(desc.charAt(0));
-                break;
-            case '[':
-                out.append("[");
-                return obfType(desc.substring(1), map, out);
-            case 'L':
-                String type = desc.substring(1, desc.indexOf(";"));
-                size += type.length() + 1;
-                out.append("L").append(map.containsKey(type) ? map.get(type) : type).append(";");
+        private void set(int index, int owner, int name, int desc, int target) {
+            int offset = index * STRIDE;
+            data[offset] = owner;
+            data[offset + 1] = name;
+            data[offset + 2] = desc;
+            data[offset + 3] = target;
         }
-        return desc.substring(size);
-    }
 
-    private static String csrgDesc(Map<String, String> first, Map<String, String> second, String args, String ret) {
-        String[] parts = args.substring(1, args.length() - 1).split(",");
-        StringBuilder desc = new StringBuilder("(");
-        for (String part : parts) {
-            if (part.isEmpty()) {
-                continue;
-            }
-            desc.append(toJVMType(first, second, part));
+        private int get(int index, int part) {
+            return data[index * STRIDE + part];
         }
-        desc.append(")");
-        desc.append(toJVMType(first, second, ret));
-        return desc.toString();
-    }
 
-    private static String toJVMType(Map<String, String> first, Map<String, String> second, String type) {
-        switch (type) {
-            case "byte":
-                return "B";
-            case "char":
-                return "C";
-            case "double":
-                return "D";
-            case "float":
-                return "F";
-            case "int":
-                return "I";
-            case "long":
-                return "J";
-            case "short":
-                return "S";
-            case "boolean":
-                return "Z";
-            case "void":
-                return "V";
-            default:
-                if (type.endsWith("[]")) {
-                    return "[" + toJVMType(first, second, type.substring(0, type.length() - 2));
-                }
-                String clazzType = type.replace('.', '/');
-                String obf = deobfClass(clazzType, first);
-                String mappedType = deobfClass((obf != null) ? obf : clazzType, second);
+        private int size() {
+            return size;
+        }
 
-                return "L" + ((mappedType != null) ? mappedType : clazzType) + ";";
+        private String toLine(int index) {
+            int desc = get(index, 2);
+            return symbols.getClassName(get(index, 0)) + " " + symbols.getSymbol(get(index, 1))
+                    + (desc == -1 ? "" : " " + symbols.getSymbol(desc)) + " " + symbols.getSymbol(get(index, 3));
         }
     }
 }
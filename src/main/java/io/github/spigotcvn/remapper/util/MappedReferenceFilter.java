@@ -0,0 +1,152 @@
+package io.github.spigotcvn.remapper.util;
+
+import org.objectweb.asm.ClassReader;
+
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Finds the classes of a jar that a remap can't change, by scanning their constant pools for the
+ * namespaces the mappings cover, without parsing anything else of the classes.
+ * <p>
+ * A class has to be remapped if its constant pool mentions a mapped namespace, or if it refers to
+ * another class of the jar that has to be remapped: that class may inherit mapped members,
+ * which are renamed where they are accessed through it too. The supertypes of a class that has to be remapped
+ * are remapped as well, as a mapped method may override or implement one of theirs and be renamed along with it.
+ */
+public class MappedReferenceFilter {
+    /**
+     * The namespaces of the mojang, spigot and intermediary mapped server classes.
+     */
+    public static final List<String> MAPPED_NAMESPACES = Collections.unmodifiableList(Arrays.asList(
+            "net/minecraft/", "com/mojang/", "org/bukkit/craftbukkit/"));
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_CLASS = 7;
+
+    private final byte[][] namespaces;
+    private final Map<String, ScannedClass> classes = new HashMap<>();
+
+    /**
+     * @param namespaces The namespace prefixes to look for, as internal names
+     */
+    public MappedReferenceFilter(Collection<String> namespaces) {
+        this.namespaces = new byte[namespaces.size()][];
+        int i = 0;
+        for (String namespace : namespaces) {
+            this.namespaces[i++] = namespace.getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Scans a class of the jar.
+     * @param entryName The name of the jar entry of the class
+     * @param bytes     The class file
+     */
+    public void add(String entryName, byte[] bytes) {
+        ScannedClass scanned = new ScannedClass();
+        try {
+            ClassReader reader = new ClassReader(bytes);
+            scanned.name = reader.getClassName();
+            if (reader.getSuperName() != null) scanned.supertypes.add(reader.getSuperName());
+            Collections.addAll(scanned.supertypes, reader.getInterfaces());
+            char[] buffer = new char[reader.getMaxStringLength()];
+            for (int i = 1; i < reader.getItemCount() && !scanned.mapped; i++) {
+                int offset = reader.getItem(i);
+                // the second slot of longs and doubles has no offset
+                if (offset == 0) continue;
+
+                int tag = bytes[offset - 1];
+                if (tag == CONSTANT_UTF8) {
+                    scanned.mapped = containsNamespace(bytes, offset + 2, reader.readUnsignedShort(offset));
+                } else if (tag == CONSTANT_CLASS) {
+                    scanned.references.add(reader.readUTF8(offset, buffer));
+                }
+            }
+        } catch (RuntimeException e) {
+            // anything ASM can't read is left to the remapper
+            scanned.name = entryName;
+            scanned.mapped = true;
+        }
+
+        // versioned classes share the name of the base class, if any of them is mapped all of them are
+        ScannedClass existing = classes.get(scanned.name);
+        if (existing != null) {
+            existing.mapped |= scanned.mapped;
+            existing.references.addAll(scanned.references);
+            existing.supertypes.addAll(scanned.supertypes);
+            existing.entryNames.add(entryName);
+        } else {
+            scanned.entryNames.add(entryName);
+            classes.put(scanned.name, scanned);
+        }
+    }
+
+    /**
+     * @return The entry names of the scanned classes that stay the same when remapped
+     */
+    public Set<String> getUnmappedEntries() {
+        Map<String, List<ScannedClass>> referencedBy = new HashMap<>();
+        Deque<ScannedClass> queue = new ArrayDeque<>();
+        for (ScannedClass scanned : classes.values()) {
+            for (String reference : scanned.references) {
+                if (classes.containsKey(reference) && !reference.equals(scanned.name)) {
+                    referencedBy.computeIfAbsent(reference, name -> new ArrayList<>()).add(scanned);
+                }
+            }
+            if (scanned.mapped) queue.add(scanned);
+        }
+
+        // whatever refers to a mapped class has to be remapped as well, and so do its supertypes in the jar
+        while (!queue.isEmpty()) {
+            ScannedClass mapped = queue.poll();
+            for (ScannedClass referrer : referencedBy.getOrDefault(mapped.name, Collections.emptyList())) {
+                markMapped(referrer, queue);
+            }
+            for (String supertype : mapped.supertypes) {
+                ScannedClass scanned = classes.get(supertype);
+                if (scanned != null) markMapped(scanned, queue);
+            }
+        }
+
+        Set<String> unmapped = new HashSet<>();
+        for (ScannedClass scanned : classes.values()) {
+            if (!scanned.mapped) unmapped.addAll(scanned.entryNames);
+        }
+        return unmapped;
+    }
+
+    private static void markMapped(ScannedClass scanned, Deque<ScannedClass> queue) {
+        if (!scanned.mapped) {
+            scanned.mapped = true;
+            queue.add(scanned);
+        }
+    }
+
+    private boolean containsNamespace(byte[] bytes, int start, int length) {
+        int end = start + length;
+        for (int i = start; i < end; i++) {
+            for (byte[] namespace : namespaces) {
+                if (bytes[i] == namespace[0] && i + namespace.length <= end && startsWith(bytes, i, namespace)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean startsWith(byte[] bytes, int offset, byte[] prefix) {
+        for (int i = 1; i < prefix.length; i++) {
+            if (bytes[offset + i] != prefix[i]) return false;
+        }
+        return true;
+    }
+
+    private static class ScannedClass {
+        private String name;
+        private boolean mapped;
+        private final Set<String> references = new HashSet<>();
+        private final Set<String> supertypes = new HashSet<>();
+        private final List<String> entryNames = new ArrayList<>(1);
+    }
+}
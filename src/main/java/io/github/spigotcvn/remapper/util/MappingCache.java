@@ -0,0 +1,191 @@
+package io.github.spigotcvn.remapper.util;
+
+import net.fabricmc.tinyremapper.IMappingProvider;
+import net.fabricmc.tinyremapper.TinyUtils;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compiles tiny mappings into a compact binary file next to them, so later builds can
+ * memory map it instead of parsing the text again.
+ * <p>
+ * The cache file is keyed by the minecraft version, the namespaces and the size and modification time
+ * of the tiny file, so regenerated mappings are picked up automatically without hashing them again.
+ * <p>
+ * Layout: magic, format version, string pool (length prefixed UTF-8), then the class
+ * (src, dst), field and method (owner, name, desc, dst) tables as indexes into the pool.
+ */
+public class MappingCache {
+    private static final int MAGIC = 0x43564E4D; // CVNM
+    private static final int FORMAT_VERSION = 1;
+
+    /**
+     * Loads the given tiny mappings, compiling them first if there is no up to date cache file.
+     * @param tinyMappings     The tiny mappings file
+     * @param minecraftVersion The minecraft version the mappings are for
+     * @param from             The namespace to map from
+     * @param to               The namespace to map to
+     * @return A mapping provider backed by the memory mapped cache file
+     * @throws IOException If an error occurs while reading or writing the files
+     */
+    public static IMappingProvider load(File tinyMappings, String minecraftVersion, String from, String to) throws IOException {
+        File cacheFile = getCacheFile(tinyMappings, minecraftVersion, from, to);
+        if (!cacheFile.exists()) {
+            compile(tinyMappings, from, to, cacheFile);
+        }
+        return read(cacheFile);
+    }
+
+    public static File getCacheFile(File tinyMappings, String minecraftVersion, String from, String to) throws IOException {
+        // the modification time takes 11 hex digits until the year 2527, so the key can't be ambiguous
+        String key = String.format("%x%011x", tinyMappings.length(), tinyMappings.lastModified());
+        return new File(
+                tinyMappings.getParentFile(),
+                "mappings-" + minecraftVersion + "-" + from + "-" + to + "-" + key + ".bin"
+        );
+    }
+
+    public static void compile(File tinyMappings, String from, String to, File cacheFile) throws IOException {
+        System.out.println("Compiling mappings " + tinyMappings.getName() + " to " + cacheFile.getName() + "...");
+
+        StringPool pool = new StringPool();
+        List<int[]> classes = new ArrayList<>();
+        List<int[]> fields = new ArrayList<>();
+        List<int[]> methods = new ArrayList<>();
+
+        TinyUtils.createTinyMappingProvider(tinyMappings.toPath(), from, to).load(new IMappingProvider.MappingAcceptor() {
+            @Override
+            public void acceptClass(String srcName, String dstName) {
+                classes.add(new int[]{pool.get(srcName), pool.get(dstName)});
+            }
+
+            @Override
+            public void acceptMethod(IMappingProvider.Member method, String dstName) {
+                methods.add(new int[]{pool.get(method.owner), pool.get(method.name), pool.get(method.desc), pool.get(dstName)});
+            }
+
+            @Override
+            public void acceptMethodArg(IMappingProvider.Member method, int lvIndex, String dstName) {
+            }
+
+            @Override
+            public void acceptMethodVar(IMappingProvider.Member method, int lvIndex, int startOpIdx, int asmIndex, String dstName) {
+            }
+
+            @Override
+            public void acceptField(IMappingProvider.Member field, String dstName) {
+                fields.add(new int[]{pool.get(field.owner), pool.get(field.name), pool.get(field.desc), pool.get(dstName)});
+            }
+        });
+
+        File tmpFile = new File(cacheFile.getParentFile(), cacheFile.getName() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 65536))) {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+
+            out.writeInt(pool.strings.size());
+            for (String string : pool.strings) {
+                byte[] bytes = string.getBytes(StandardCharsets.UTF_8);
+                out.writeInt(bytes.length);
+                out.write(bytes);
+            }
+
+            writeTable(out, classes);
+            writeTable(out, fields);
+            writeTable(out, methods);
+        }
+
+        // the key changes whenever the mappings do, so older cache files are never read again
+        String prefix = cacheFile.getName().substring(0, cacheFile.getName().lastIndexOf('-') + 1);
+        File[] stale = cacheFile.getParentFile().listFiles((dir, name) -> name.startsWith(prefix) && name.endsWith(".bin"));
+        if (stale != null) {
+            for (File file : stale) {
+                if (file.equals(cacheFile)) continue;
+                try {
+                    Files.deleteIfExists(file.toPath());
+                } catch (IOException e) {
+                    // still mapped by a store of this daemon, which Windows doesn't allow deleting, a later run removes it
+                    System.out.println("Could not delete stale mapping cache " + file.getName() + ": " + e.getMessage());
+                }
+            }
+        }
+        Files.move(tmpFile.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public static IMappingProvider read(File cacheFile) throws IOException {
+        MappedByteBuffer buffer;
+        try (FileChannel channel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ)) {
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+
+        if (buffer.getInt() != MAGIC || buffer.getInt() != FORMAT_VERSION) {
+            throw new IOException("Invalid or outdated mapping cache file: " + cacheFile.getAbsolutePath());
+        }
+
+        String[] strings = new String[buffer.getInt()];
+        byte[] bytes = new byte[256];
+        for (int i = 0; i < strings.length; i++) {
+            int length = buffer.getInt();
+            if (length > bytes.length) bytes = new byte[length];
+            buffer.get(bytes, 0, length);
+            strings[i] = new String(bytes, 0, length, StandardCharsets.UTF_8);
+        }
+
+        ByteBuffer tables = buffer.slice();
+        return out -> {
+            ByteBuffer table = tables.duplicate();
+
+            int classCount = table.getInt();
+            for (int i = 0; i < classCount; i++) {
+                out.acceptClass(strings[table.getInt()], strings[table.getInt()]);
+            }
+            int fieldCount = table.getInt();
+            for (int i = 0; i < fieldCount; i++) {
+                IMappingProvider.Member field = new IMappingProvider.Member(
+                        strings[table.getInt()], strings[table.getInt()], strings[table.getInt()]);
+                out.acceptField(field, strings[table.getInt()]);
+            }
+            int methodCount = table.getInt();
+            for (int i = 0; i < methodCount; i++) {
+                IMappingProvider.Member method = new IMappingProvider.Member(
+                        strings[table.getInt()], strings[table.getInt()], strings[table.getInt()]);
+                out.acceptMethod(method, strings[table.getInt()]);
+            }
+        };
+    }
+
+    private static void writeTable(DataOutputStream out, List<int[]> table) throws IOException {
+        out.writeInt(table.size());
+        for (int[] row : table) {
+            for (int index : row) {
+                out.writeInt(index);
+            }
+        }
+    }
+
+    private static class StringPool {
+        private final Map<String, Integer> indexes = new HashMap<>();
+        private final List<String> strings = new ArrayList<>();
+
+        private int get(String string) {
+            Integer index = indexes.get(string);
+            if (index == null) {
+                index = strings.size();
+                indexes.put(string, index);
+                strings.add(string);
+            }
+            return index;
+        }
+    }
+}
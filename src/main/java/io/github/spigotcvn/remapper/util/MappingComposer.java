@@ -0,0 +1,251 @@
+package io.github.spigotcvn.remapper.util;
+
+import net.fabricmc.tinyremapper.IMappingProvider;
+import net.md_5.specialsource.JarMapping;
+import net.md_5.specialsource.JarRemapper;
+import org.objectweb.asm.commons.Remapper;
+import org.objectweb.asm.commons.SimpleRemapper;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Composes the mojang, spigot and intermediary mappings into single tables going straight
+ * from the mojang names, so a mojang mapped jar can be remapped in one pass instead of
+ * going mojang -> official -> spigot -> intermediary through three separate jars.
+ */
+public class MappingComposer {
+    private final Map<String, String> mojToObf = new HashMap<>();
+    // mojang owner, mojang name, mojang descriptor, obfuscated name
+    private final List<String[]> fields = new ArrayList<>();
+    private final List<String[]> methods = new ArrayList<>();
+
+    private final Map<String, String> intermediaryClasses = new HashMap<>();
+    private final Map<String, String> intermediaryFields = new HashMap<>();
+    private final Map<String, String> intermediaryMethods = new HashMap<>();
+
+    // hashes of every loaded mappings file, identifies the composed mappings
+    private final StringBuilder key = new StringBuilder();
+
+    private Remapper obfRemapper;
+    private JarRemapper spigotRemapper;
+
+    /**
+     * Loads the mojang ProGuard mappings, these define which names the composed mappings start from.
+     * @param mojMaps The mojang mappings file
+     * @throws IOException If an error occurs while reading the file
+     */
+    public void loadMojang(File mojMaps) throws IOException {
+        key.append(Util.hashFile(mojMaps));
+        ProGuardParser.parse(mojMaps, new ProGuardParser.Visitor() {
+            private String currentClass;
+
+            @Override
+            public void visitClass(String mojName, String obfName) {
+                currentClass = mojName;
+                mojToObf.put(mojName, obfName);
+            }
+
+            @Override
+            public void visitField(String type, String mojName, String obfName) {
+                if (currentClass == null) return;
+                fields.add(new String[]{currentClass, mojName, toDesc(type), obfName});
+            }
+
+            @Override
+            public void visitMethod(String returnType, String mojName, String args, String obfName) {
+                if (currentClass == null) return;
+                StringBuilder desc = new StringBuilder("(");
+                for (String arg : args.split(",")) {
+                    if (!arg.isEmpty()) desc.append(toDesc(arg));
+                }
+                desc.append(')').append(toDesc(returnType));
+                methods.add(new String[]{currentClass, mojName, desc.toString(), obfName});
+            }
+        });
+
+        obfRemapper = new SimpleRemapper(mojToObf);
+    }
+
+    /**
+     * Loads the spigot class mappings, these are applied on top of the obfuscated names.
+     * @param spigotMappings The spigot csrg mappings file
+     * @throws IOException If an error occurs while reading the file
+     */
+    public void loadSpigot(File spigotMappings) throws IOException {
+        key.append(Util.hashFile(spigotMappings));
+        JarMapping jarMapping = new JarMapping();
+        try (BufferedReader reader = new BufferedReader(new FileReader(spigotMappings))) {
+            jarMapping.loadMappings(reader, null, null, false);
+        }
+        spigotRemapper = new JarRemapper(jarMapping);
+    }
+
+    /**
+     * Loads the intermediary tiny mappings, these are applied on top of the spigot names.
+     * @param intermediaryMappings The final intermediary mappings file
+     * @param minecraftVersion     The minecraft version the mappings are for
+     * @throws IOException If an error occurs while reading the file
+     */
+    public void loadIntermediary(File intermediaryMappings, String minecraftVersion) throws IOException {
+        key.append(MappingCache.getCacheFile(intermediaryMappings, minecraftVersion, "spigot", "intermediary").getName());
+        MappingCache.load(intermediaryMappings, minecraftVersion, "spigot", "intermediary")
+                .load(new IMappingProvider.MappingAcceptor() {
+                    @Override
+                    public void acceptClass(String srcName, String dstName) {
+                        intermediaryClasses.put(srcName, dstName);
+                    }
+
+                    @Override
+                    public void acceptMethod(IMappingProvider.Member method, String dstName) {
+                        intermediaryMethods.put(memberKey(method.owner, method.name, method.desc), dstName);
+                    }
+
+                    @Override
+                    public void acceptMethodArg(IMappingProvider.Member method, int lvIndex, String dstName) {
+                    }
+
+                    @Override
+                    public void acceptMethodVar(IMappingProvider.Member method, int lvIndex, int startOpIdx,
+                                                int asmIndex, String dstName) {
+                    }
+
+                    @Override
+                    public void acceptField(IMappingProvider.Member field, String dstName) {
+                        intermediaryFields.put(memberKey(field.owner, field.name, field.desc), dstName);
+                    }
+                });
+    }
+
+    /**
+     * @return A key that changes whenever any of the loaded mappings do
+     */
+    public String getKey() {
+        return key.toString();
+    }
+
+    /**
+     * @return The mappings going from mojang names straight to spigot names
+     */
+    public IMappingProvider toSpigot() {
+        return out -> compose(out, false);
+    }
+
+    /**
+     * @return The mappings going from mojang names straight to intermediary names
+     */
+    public IMappingProvider toIntermediary() {
+        return out -> compose(out, true);
+    }
+
+    private void compose(IMappingProvider.MappingAcceptor out, boolean intermediary) {
+        if (obfRemapper == null || spigotRemapper == null) {
+            throw new IllegalStateException("The mojang and spigot mappings have to be loaded first");
+        }
+
+        Map<String, String> spigotToMoj = new HashMap<>();
+        for (Map.Entry<String, String> entry : mojToObf.entrySet()) {
+            String spigot = spigotRemapper.map(entry.getValue());
+            spigotToMoj.put(spigot, entry.getKey());
+
+            out.acceptClass(entry.getKey(), intermediary ? intermediaryClasses.getOrDefault(spigot, spigot) : spigot);
+        }
+
+        for (String[] field : fields) {
+            String obfOwner = mojToObf.get(field[0]);
+            String obfDesc = obfRemapper.mapDesc(field[2]);
+            String spigotOwner = spigotRemapper.map(obfOwner);
+            String spigotName = spigotRemapper.mapFieldName(obfOwner, field[3], obfDesc);
+
+            String name = intermediary
+                    ? intermediaryFields.getOrDefault(
+                            memberKey(spigotOwner, spigotName, spigotRemapper.mapDesc(obfDesc)), spigotName)
+                    : spigotName;
+            out.acceptField(new IMappingProvider.Member(field[0], field[1], field[2]), name);
+        }
+
+        for (String[] method : methods) {
+            String obfOwner = mojToObf.get(method[0]);
+            String obfDesc = obfRemapper.mapMethodDesc(method[2]);
+            String spigotOwner = spigotRemapper.map(obfOwner);
+            String spigotName = spigotRemapper.mapMethodName(obfOwner, method[3], obfDesc);
+
+            String name = intermediary
+                    ? intermediaryMethods.getOrDefault(
+                            memberKey(spigotOwner, spigotName, spigotRemapper.mapMethodDesc(obfDesc)), spigotName)
+                    : spigotName;
+            out.acceptMethod(new IMappingProvider.Member(method[0], method[1], method[2]), name);
+        }
+
+        if (!intermediary) return;
+
+        // classes that are not covered by the mojang mappings (e.g. craftbukkit) keep the same
+        // name in both namespaces, so their intermediary mappings are passed through as is
+        Remapper mojRemapper = new SimpleRemapper(spigotToMoj);
+        for (Map.Entry<String, String> entry : intermediaryClasses.entrySet()) {
+            if (isPassedThrough(entry.getKey(), spigotToMoj)) {
+                out.acceptClass(entry.getKey(), entry.getValue());
+            }
+        }
+        passThroughMembers(intermediaryFields, spigotToMoj, mojRemapper, false, out);
+        passThroughMembers(intermediaryMethods, spigotToMoj, mojRemapper, true, out);
+    }
+
+    private void passThroughMembers(Map<String, String> members, Map<String, String> spigotToMoj,
+                                    Remapper mojRemapper, boolean isMethod, IMappingProvider.MappingAcceptor out) {
+        for (Map.Entry<String, String> entry : members.entrySet()) {
+            String key = entry.getKey();
+            int space = key.indexOf(' ');
+            int slash = key.lastIndexOf('/', space);
+            String owner = key.substring(0, slash);
+            if (!isPassedThrough(owner, spigotToMoj)) continue;
+
+            String name = key.substring(slash + 1, space);
+            String desc = key.substring(space + 1);
+            if (isMethod) {
+                out.acceptMethod(new IMappingProvider.Member(owner, name, mojRemapper.mapMethodDesc(desc)), entry.getValue());
+            } else {
+                out.acceptField(new IMappingProvider.Member(owner, name, mojRemapper.mapDesc(desc)), entry.getValue());
+            }
+        }
+    }
+
+    private boolean isPassedThrough(String owner, Map<String, String> spigotToMoj) {
+        return !spigotToMoj.containsKey(owner) && !mojToObf.containsKey(owner);
+    }
+
+    private static String memberKey(String owner, String name, String desc) {
+        return owner + "/" + name + " " + desc;
+    }
+
+    private static String toDesc(String type) {
+        switch (type) {
+            case "byte":
+                return "B";
+            case "char":
+                return "C";
+            case "double":
+                return "D";
+            case "float":
+                return "F";
+            case "int":
+                return "I";
+            case "long":
+                return "J";
+            case "short":
+                return "S";
+            case "boolean":
+                return "Z";
+            case "void":
+                return "V";
+            default:
+                if (type.endsWith("[]")) {
+                    return "[" + toDesc(type.substring(0, type.length() - 2));
+                }
+                return "L" + type.replace('.', '/') + ";";
+        }
+    }
+}
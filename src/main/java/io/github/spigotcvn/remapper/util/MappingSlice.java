@@ -0,0 +1,83 @@
+package io.github.spigotcvn.remapper.util;
+
+import net.fabricmc.tinyremapper.IMappingProvider;
+
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * The part of some mappings a single jar needs: the classes it refers to, their supertypes,
+ * and the members owned by those classes. Everything else is dropped before the remapper sees it.
+ * <p>
+ * Members are kept per owner rather than per reference, as a reference through a subclass
+ * resolves to the member of whichever supertype declares it.
+ */
+public class MappingSlice implements IMappingProvider {
+    private final IMappingProvider mappings;
+    private final Set<String> classes;
+    private int accepted;
+    private int total;
+
+    /**
+     * @param mappings The full mappings
+     * @param classes  The classes to keep the mappings of, as internal names
+     */
+    public MappingSlice(IMappingProvider mappings, Set<String> classes) {
+        this.mappings = mappings;
+        this.classes = new HashSet<>(classes);
+        // inner classes without a mapping of their own are named after their outer class
+        for (String name : classes) {
+            for (int i = name.indexOf('$'); i != -1; i = name.indexOf('$', i + 1)) {
+                this.classes.add(name.substring(0, i));
+            }
+        }
+    }
+
+    @Override
+    public void load(MappingAcceptor out) {
+        accepted = 0;
+        total = 0;
+        mappings.load(new SliceAcceptor(out));
+        System.out.println("Using " + accepted + " of " + total + " mappings");
+    }
+
+    private class SliceAcceptor implements MappingAcceptor {
+        private final MappingAcceptor delegate;
+
+        private SliceAcceptor(MappingAcceptor delegate) {
+            this.delegate = delegate;
+        }
+
+        private boolean keep(String owner) {
+            total++;
+            if (!classes.contains(owner)) return false;
+            accepted++;
+            return true;
+        }
+
+        @Override
+        public void acceptClass(String srcName, String dstName) {
+            if (keep(srcName)) delegate.acceptClass(srcName, dstName);
+        }
+
+        @Override
+        public void acceptMethod(Member method, String dstName) {
+            if (keep(method.owner)) delegate.acceptMethod(method, dstName);
+        }
+
+        @Override
+        public void acceptMethodArg(Member method, int lvIndex, String dstName) {
+            if (classes.contains(method.owner)) delegate.acceptMethodArg(method, lvIndex, dstName);
+        }
+
+        @Override
+        public void acceptMethodVar(Member method, int lvIndex, int startOpIdx, int asmIndex, String dstName) {
+            if (classes.contains(method.owner)) delegate.acceptMethodVar(method, lvIndex, startOpIdx, asmIndex, dstName);
+        }
+
+        @Override
+        public void acceptField(Member field, String dstName) {
+            if (keep(field.owner)) delegate.acceptField(field, dstName);
+        }
+    }
+}
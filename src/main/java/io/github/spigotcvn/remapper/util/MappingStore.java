@@ -0,0 +1,92 @@
+package io.github.spigotcvn.remapper.util;
+
+import net.fabricmc.tinyremapper.IMappingProvider;
+import net.md_5.specialsource.JarMapping;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.lang.ref.SoftReference;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps parsed mappings and classpath indexes in memory, so they are only loaded again once their files change.
+ * <p>
+ * Entries are keyed by what they are and the path, size and modification time of the files they were
+ * loaded from, so a lookup never has to read the files. They are softly referenced and let go under memory pressure.
+ */
+public class MappingStore {
+    private final Map<String, SoftReference<Object>> entries = new ConcurrentHashMap<>();
+
+    public IMappingProvider getTinyMappings(File tinyMappings, String minecraftVersion, String from, String to) throws IOException {
+        return get("tiny-" + minecraftVersion + "-" + from + "-" + to, new File[]{tinyMappings},
+                () -> MappingCache.load(tinyMappings, minecraftVersion, from, to));
+    }
+
+    /**
+     * @return A key that changes whenever the tiny mappings do, see {@link MappingCache#getCacheFile}
+     */
+    public String getTinyMappingsKey(File tinyMappings, String minecraftVersion, String from, String to) throws IOException {
+        return get("tiny-key-" + minecraftVersion + "-" + from + "-" + to, new File[]{tinyMappings},
+                () -> MappingCache.getCacheFile(tinyMappings, minecraftVersion, from, to).getName());
+    }
+
+    public JarMapping getJarMapping(File mappings, boolean reverse) throws IOException {
+        return get("jar-mapping-" + reverse, new File[]{mappings}, () -> {
+            JarMapping jarMapping = new JarMapping();
+            try (BufferedReader reader = new BufferedReader(new FileReader(mappings))) {
+                jarMapping.loadMappings(reader, null, null, reverse);
+            }
+            return jarMapping;
+        });
+    }
+
+    public MappingComposer getComposer(File mojMaps, File spigotMappings, File intermediaryMappings,
+                                       String minecraftVersion) throws IOException {
+        return get("composer-" + minecraftVersion, new File[]{mojMaps, spigotMappings, intermediaryMappings}, () -> {
+            MappingComposer composer = new MappingComposer();
+            composer.loadMojang(mojMaps);
+            composer.loadSpigot(spigotMappings);
+            composer.loadIntermediary(intermediaryMappings, minecraftVersion);
+            return composer;
+        });
+    }
+
+    public ClassHierarchyIndex getHierarchyIndex(File serverJar, File indexDir) throws IOException {
+        return get("hierarchy-" + indexDir.getAbsolutePath(), new File[]{serverJar},
+                () -> ClassHierarchyIndex.load(serverJar, indexDir));
+    }
+
+    @SuppressWarnings("unchecked")
+    private <T> T get(String kind, File[] files, Loader<T> loader) throws IOException {
+        StringBuilder key = new StringBuilder(kind);
+        for (File file : files) {
+            key.append('|').append(file.getAbsolutePath())
+                    .append(':').append(file.length())
+                    .append(':').append(file.lastModified());
+        }
+
+        SoftReference<Object> reference = entries.get(key.toString());
+        Object value = reference == null ? null : reference.get();
+        if (value == null) {
+            value = loader.load();
+            // anything loaded for an older version of the same files is never asked for again
+            entries.keySet().removeIf(existing -> existing.startsWith(kind + "|") && samePaths(existing, files));
+            entries.put(key.toString(), new SoftReference<>(value));
+        }
+        return (T) value;
+    }
+
+    private static boolean samePaths(String key, File[] files) {
+        for (File file : files) {
+            if (!key.contains("|" + file.getAbsolutePath() + ":")) return false;
+        }
+        return true;
+    }
+
+    private interface Loader<T> {
+        T load() throws IOException;
+    }
+}
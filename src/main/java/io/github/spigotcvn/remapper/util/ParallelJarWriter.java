@@ -0,0 +1,297 @@
+package io.github.spigotcvn.remapper.util;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Writes a jar whose entries are compressed in parallel on the common pool.
+ * <p>
+ * Entries are deflated as soon as they are added, and written to the file by the calling thread
+ * in the order they were added, so the result is the same as with a single {@link java.util.jar.JarOutputStream}.
+ * Jars with more than 65535 entries or larger than 4 GB are written with the zip64 extensions.
+ * <p>
+ * The jar is written next to the target and only moved into place by {@link #finish()}, closing the writer
+ * without finishing it, like when an exception is thrown while adding entries, leaves the target untouched.
+ */
+public class ParallelJarWriter implements Closeable {
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+    private static final int ZIP64_EXTRA = 0x0001;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    // entries without a time get the earliest one a zip can hold, 1980-01-01, so the jar is the same on every run
+    private static final long FIXED_DOS_TIME = (1 << 21) | (1 << 16);
+    private static final int UTF8_FLAG = 0x0800;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private final ForkJoinPool pool = ForkJoinPool.commonPool();
+    // how many entries may be compressed ahead of the writer before it starts waiting on them
+    private final int maxPending = Math.max(4, pool.getParallelism() * 4);
+
+    private final File file;
+    private final File tmpFile;
+    private final DataOutputStream out;
+    private final Deque<Future<CompressedEntry>> pending = new ArrayDeque<>();
+    private final List<CompressedEntry> written = new ArrayList<>();
+    private long offset = 0;
+    private boolean finished;
+
+    public ParallelJarWriter(File file) throws IOException {
+        this.file = file;
+        this.tmpFile = new File(file.getParentFile(), file.getName() + ".tmp");
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile), 65536));
+    }
+
+    public void putEntry(String name, byte[] data, long time) throws IOException {
+        pending.add(pool.submit(() -> compress(name, data, time)));
+
+        // write out whatever is already done, and wait if the compression got too far ahead
+        while (!pending.isEmpty() && (pending.peek().isDone() || pending.size() > maxPending)) {
+            writeEntry(await(pending.poll()));
+        }
+    }
+
+    /**
+     * Adds an entry that is already compressed, exactly as it was read from another jar.
+     * @param entry The entry as it was read
+     * @param raw   The stored data of the entry, see {@link RawJarReader#readRaw(RawJarReader.Entry)}
+     */
+    public void putRawEntry(RawJarReader.Entry entry, byte[] raw) throws IOException {
+        CompressedEntry compressed = new CompressedEntry();
+        compressed.name = entry.getName().getBytes(StandardCharsets.UTF_8);
+        compressed.data = raw;
+        compressed.method = entry.getMethod();
+        compressed.dosTime = entry.getDosTime();
+        compressed.crc = entry.getCrc();
+        compressed.size = entry.getSize();
+        compressed.compressedSize = raw.length;
+        // it goes through the queue as well, so it's still written in the order it was added
+        pending.add(CompletableFuture.completedFuture(compressed));
+
+        while (!pending.isEmpty() && (pending.peek().isDone() || pending.size() > maxPending)) {
+            writeEntry(await(pending.poll()));
+        }
+    }
+
+    public void putDirectory(String name, long time) throws IOException {
+        putEntry(name.endsWith("/") ? name : name + "/", new byte[0], time);
+    }
+
+    /**
+     * Writes the remaining entries and the central directory, and moves the jar into place.
+     */
+    public void finish() throws IOException {
+        while (!pending.isEmpty()) {
+            writeEntry(await(pending.poll()));
+        }
+
+        long centralDirectoryOffset = offset;
+        for (CompressedEntry entry : written) {
+            boolean zip64 = entry.offset >= ZIP64_MAGIC;
+            writeIntLE(CENTRAL_HEADER);
+            writeShortLE(zip64 ? 45 : 20); // version made by
+            writeShortLE(zip64 ? 45 : 20); // version needed to extract
+            writeShortLE(UTF8_FLAG);
+            writeShortLE(entry.method);
+            writeIntLE((int) entry.dosTime);
+            writeIntLE((int) entry.crc);
+            writeIntLE((int) entry.compressedSize);
+            writeIntLE((int) entry.size);
+            writeShortLE(entry.name.length);
+            writeShortLE(zip64 ? 12 : 0); // extra length
+            writeShortLE(0); // comment length
+            writeShortLE(0); // disk number
+            writeShortLE(0); // internal attributes
+            writeIntLE(0); // external attributes
+            // the sizes of a single entry always fit, only its offset can be too large
+            writeIntLE((int) (zip64 ? ZIP64_MAGIC : entry.offset));
+            out.write(entry.name);
+            if (zip64) {
+                writeShortLE(ZIP64_EXTRA);
+                writeShortLE(8);
+                writeLongLE(entry.offset);
+            }
+            offset += 46 + entry.name.length + (zip64 ? 12 : 0);
+        }
+        long centralDirectorySize = offset - centralDirectoryOffset;
+
+        boolean zip64 = written.size() >= 0xFFFF || centralDirectoryOffset >= ZIP64_MAGIC
+                || centralDirectorySize >= ZIP64_MAGIC;
+        if (zip64) {
+            long zip64EndOffset = offset;
+            writeIntLE(ZIP64_END_OF_CENTRAL_DIRECTORY);
+            writeLongLE(44); // size of the rest of the record
+            writeShortLE(45); // version made by
+            writeShortLE(45); // version needed to extract
+            writeIntLE(0); // disk number
+            writeIntLE(0); // disk with the central directory
+            writeLongLE(written.size());
+            writeLongLE(written.size());
+            writeLongLE(centralDirectorySize);
+            writeLongLE(centralDirectoryOffset);
+
+            writeIntLE(ZIP64_LOCATOR);
+            writeIntLE(0); // disk with the zip64 end record
+            writeLongLE(zip64EndOffset);
+            writeIntLE(1); // number of disks
+        }
+
+        writeIntLE(END_OF_CENTRAL_DIRECTORY);
+        writeShortLE(0); // disk number
+        writeShortLE(0); // disk with the central directory
+        writeShortLE(zip64 ? 0xFFFF : written.size());
+        writeShortLE(zip64 ? 0xFFFF : written.size());
+        writeIntLE((int) (zip64 ? ZIP64_MAGIC : centralDirectorySize));
+        writeIntLE((int) (zip64 ? ZIP64_MAGIC : centralDirectoryOffset));
+        writeShortLE(0); // comment length
+
+        out.close();
+        Files.move(tmpFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        finished = true;
+    }
+
+    /**
+     * Closes the writer, a jar that wasn't finished is thrown away.
+     */
+    @Override
+    public void close() throws IOException {
+        if (finished) return;
+        pending.forEach(future -> future.cancel(false));
+        try {
+            out.close();
+        } finally {
+            Files.deleteIfExists(tmpFile.toPath());
+        }
+    }
+
+    private void writeEntry(CompressedEntry entry) throws IOException {
+        entry.offset = offset;
+
+        writeIntLE(LOCAL_HEADER);
+        writeShortLE(20); // version needed to extract
+        writeShortLE(UTF8_FLAG);
+        writeShortLE(entry.method);
+        writeIntLE((int) entry.dosTime);
+        writeIntLE((int) entry.crc);
+        writeIntLE((int) entry.compressedSize);
+        writeIntLE((int) entry.size);
+        writeShortLE(entry.name.length);
+        writeShortLE(0); // extra length
+        out.write(entry.name);
+        out.write(entry.data, 0, (int) entry.compressedSize);
+        offset += 30 + entry.name.length + entry.compressedSize;
+
+        // the data is not needed anymore, only the header for the central directory
+        entry.data = null;
+        written.add(entry);
+    }
+
+    private static CompressedEntry compress(String name, byte[] data, long time) {
+        CompressedEntry entry = new CompressedEntry();
+        entry.name = name.getBytes(StandardCharsets.UTF_8);
+        entry.dosTime = toDosTime(time);
+        entry.size = data.length;
+
+        CRC32 crc = new CRC32();
+        crc.update(data, 0, data.length);
+        entry.crc = crc.getValue();
+
+        if (data.length > 0) {
+            Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, true);
+            try {
+                deflater.setInput(data);
+                deflater.finish();
+                ByteArrayOutputStream compressed = new ByteArrayOutputStream(Math.max(64, data.length / 2));
+                byte[] buffer = new byte[8192];
+                while (!deflater.finished()) {
+                    int length = deflater.deflate(buffer);
+                    compressed.write(buffer, 0, length);
+                }
+
+                if (compressed.size() < data.length) {
+                    entry.method = DEFLATED;
+                    entry.data = compressed.toByteArray();
+                    entry.compressedSize = entry.data.length;
+                    return entry;
+                }
+            } finally {
+                deflater.end();
+            }
+        }
+
+        // incompressible (or empty) entries are stored as they are
+        entry.method = STORED;
+        entry.data = data;
+        entry.compressedSize = data.length;
+        return entry;
+    }
+
+    private static CompressedEntry await(Future<CompressedEntry> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while compressing jar entries");
+        } catch (ExecutionException e) {
+            throw new IOException("Could not compress jar entry", e.getCause());
+        }
+    }
+
+    private static long toDosTime(long time) {
+        if (time < 0) return FIXED_DOS_TIME;
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(time);
+        int year = calendar.get(Calendar.YEAR);
+        if (year < 1980) {
+            return FIXED_DOS_TIME;
+        }
+        return (long) (year - 1980) << 25
+                | (calendar.get(Calendar.MONTH) + 1) << 21
+                | calendar.get(Calendar.DAY_OF_MONTH) << 16
+                | calendar.get(Calendar.HOUR_OF_DAY) << 11
+                | calendar.get(Calendar.MINUTE) << 5
+                | calendar.get(Calendar.SECOND) >> 1;
+    }
+
+    private void writeShortLE(int value) throws IOException {
+        out.write(value & 0xFF);
+        out.write((value >>> 8) & 0xFF);
+    }
+
+    private void writeIntLE(int value) throws IOException {
+        writeShortLE(value & 0xFFFF);
+        writeShortLE((value >>> 16) & 0xFFFF);
+    }
+
+    private void writeLongLE(long value) throws IOException {
+        writeIntLE((int) value);
+        writeIntLE((int) (value >>> 32));
+    }
+
+    private static class CompressedEntry {
+        private byte[] name;
+        private byte[] data;
+        private int method;
+        private long dosTime;
+        private long crc;
+        private long size;
+        private long compressedSize;
+        private long offset;
+    }
+}
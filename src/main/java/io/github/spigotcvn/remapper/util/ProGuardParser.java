@@ -0,0 +1,177 @@
+package io.github.spigotcvn.remapper.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * A streaming parser for ProGuard mappings, like the mojang ones.
+ * <p>
+ * The file is read in chunks and every line is parsed in place, only the names handed to the
+ * {@link Visitor} are ever allocated. Class names are converted to internal names, member types are
+ * passed on as they are written in the file, e.g. {@code int} or {@code java.lang.String[]}.
+ */
+public class ProGuardParser {
+    private static final int BUFFER_SIZE = 65536;
+
+    private char[] buffer = new char[BUFFER_SIZE];
+    private char[] scratch = new char[256];
+    private final Visitor visitor;
+
+    private ProGuardParser(Visitor visitor) {
+        this.visitor = visitor;
+    }
+
+    /**
+     * Parses the given mappings file, handing every class and member to the visitor in the order they appear in.
+     * @param mappings The ProGuard mappings file
+     * @param visitor  The visitor to hand the mappings to
+     * @throws IOException If an error occurs while reading the file
+     */
+    public static void parse(File mappings, Visitor visitor) throws IOException {
+        try (Reader reader = new InputStreamReader(new FileInputStream(mappings), StandardCharsets.UTF_8)) {
+            new ProGuardParser(visitor).parse(reader);
+        }
+    }
+
+    private void parse(Reader reader) throws IOException {
+        int start = 0;
+        int end = 0;
+        boolean eof = false;
+
+        while (true) {
+            int newline = -1;
+            for (int i = start; i < end; i++) {
+                if (buffer[i] == '\n') {
+                    newline = i;
+                    break;
+                }
+            }
+
+            if (newline != -1) {
+                parseLine(start, newline);
+                start = newline + 1;
+                continue;
+            }
+            if (eof) {
+                if (start < end) parseLine(start, end);
+                return;
+            }
+
+            // move the unfinished line to the front, growing the buffer if it takes up all of it
+            int remaining = end - start;
+            if (remaining == buffer.length) {
+                buffer = Arrays.copyOf(buffer, buffer.length * 2);
+            } else {
+                System.arraycopy(buffer, start, buffer, 0, remaining);
+            }
+            start = 0;
+            end = remaining;
+
+            int read = reader.read(buffer, end, buffer.length - end);
+            if (read == -1) {
+                eof = true;
+            } else {
+                end += read;
+            }
+        }
+    }
+
+    private void parseLine(int start, int end) {
+        if (start < end && buffer[start] == '#') return;
+
+        while (start < end && buffer[start] <= ' ') start++;
+        while (end > start && buffer[end - 1] <= ' ') end--;
+        if (start == end || buffer[start] == '#') return;
+
+        int arrow = indexOfArrow(start, end);
+        if (arrow == -1) return;
+
+        if (buffer[end - 1] == ':') {
+            visitor.visitClass(internalName(start, arrow), internalName(arrow + 4, end - 1));
+            return;
+        }
+
+        // leading line numbers, e.g. 12:34:void method() -> a
+        int pos = start;
+        while (pos < arrow && Character.isDigit(buffer[pos])) {
+            int digits = pos;
+            while (digits < arrow && Character.isDigit(buffer[digits])) digits++;
+            if (digits == arrow || buffer[digits] != ':') break;
+            pos = digits + 1;
+        }
+
+        int space = indexOf(' ', pos, arrow);
+        if (space == -1) return;
+        String type = new String(buffer, pos, space - pos);
+        String obfName = new String(buffer, arrow + 4, end - arrow - 4);
+
+        int paren = indexOf('(', space + 1, arrow);
+        if (paren == -1) {
+            visitor.visitField(type, new String(buffer, space + 1, arrow - space - 1), obfName);
+        } else {
+            int close = indexOf(')', paren + 1, arrow);
+            if (close == -1) return;
+            visitor.visitMethod(type,
+                    new String(buffer, space + 1, paren - space - 1),
+                    new String(buffer, paren + 1, close - paren - 1),
+                    obfName);
+        }
+    }
+
+    private int indexOfArrow(int start, int end) {
+        for (int i = start; i + 4 <= end; i++) {
+            if (buffer[i] == ' ' && buffer[i + 1] == '-' && buffer[i + 2] == '>' && buffer[i + 3] == ' ') {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private int indexOf(char c, int start, int end) {
+        for (int i = start; i < end; i++) {
+            if (buffer[i] == c) return i;
+        }
+        return -1;
+    }
+
+    private String internalName(int start, int end) {
+        int length = end - start;
+        if (scratch.length < length) scratch = new char[Math.max(length, scratch.length * 2)];
+        for (int i = 0; i < length; i++) {
+            char c = buffer[start + i];
+            scratch[i] = c == '.' ? '/' : c;
+        }
+        return new String(scratch, 0, length);
+    }
+
+    /**
+     * Receives the mappings of a ProGuard file, members always belong to the last visited class.
+     */
+    public interface Visitor {
+        /**
+         * @param mojName The internal name the class is mapped from
+         * @param obfName The internal obfuscated name
+         */
+        void visitClass(String mojName, String obfName);
+
+        /**
+         * @param type    The type of the field, as written in the file
+         * @param mojName The name the field is mapped from
+         * @param obfName The obfuscated name
+         */
+        void visitField(String type, String mojName, String obfName);
+
+        /**
+         * @param returnType The return type of the method, as written in the file
+         * @param mojName    The name the method is mapped from
+         * @param args       The comma separated argument types, as written in the file
+         * @param obfName    The obfuscated name
+         */
+        void visitMethod(String returnType, String mojName, String args, String obfName);
+    }
+}
@@ -0,0 +1,250 @@
+package io.github.spigotcvn.remapper.util;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the entries of a jar as they are stored, still compressed, so they can be copied to another jar
+ * with {@link ParallelJarWriter#putRawEntry(Entry, byte[])} without being inflated and deflated again.
+ * <p>
+ * Zip64 jars like the ones the writer produces for large outputs are read as well, encrypted jars are rejected.
+ */
+public class RawJarReader implements Closeable {
+    private static final int LOCAL_HEADER = 0x04034b50;
+    private static final int CENTRAL_HEADER = 0x02014b50;
+    private static final int END_OF_CENTRAL_DIRECTORY = 0x06054b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_SIZE = 22;
+    private static final int ZIP64_END_OF_CENTRAL_DIRECTORY = 0x06064b50;
+    private static final int ZIP64_LOCATOR = 0x07064b50;
+    private static final int ZIP64_LOCATOR_SIZE = 20;
+    private static final int ZIP64_EXTRA = 1;
+    private static final long ZIP64_MAGIC = 0xFFFFFFFFL;
+    private static final int STORED = 0;
+    private static final int DEFLATED = 8;
+
+    private final File file;
+    private final FileChannel channel;
+    private final List<Entry> entries;
+
+    public RawJarReader(File file) throws IOException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            this.entries = Collections.unmodifiableList(readCentralDirectory());
+        } catch (IOException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return The entries in the order of the central directory
+     */
+    public List<Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * Reads the data of an entry exactly as it is stored in the jar.
+     */
+    public byte[] readRaw(Entry entry) throws IOException {
+        ByteBuffer header = readAt(entry.localHeaderOffset, 30);
+        if (header.getInt(0) != LOCAL_HEADER) {
+            throw new IOException("Invalid local header for " + entry.name + " in " + file.getName());
+        }
+        long dataOffset = entry.localHeaderOffset + 30 + (header.getShort(26) & 0xFFFF) + (header.getShort(28) & 0xFFFF);
+        return readAt(dataOffset, (int) entry.compressedSize).array();
+    }
+
+    /**
+     * Reads the data of an entry, inflating it if it's compressed.
+     */
+    public byte[] read(Entry entry) throws IOException {
+        byte[] raw = readRaw(entry);
+        if (entry.method == STORED) return raw;
+        if (entry.method != DEFLATED) {
+            throw new IOException("Unsupported compression method " + entry.method + " for " + entry.name);
+        }
+
+        byte[] data = new byte[(int) entry.size];
+        Inflater inflater = new Inflater(true);
+        try {
+            inflater.setInput(raw);
+            int length = 0;
+            while (length < data.length && !inflater.finished()) {
+                int inflated = inflater.inflate(data, length, data.length - length);
+                if (inflated == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                length += inflated;
+            }
+            if (length != data.length) {
+                throw new IOException("Corrupt entry " + entry.name + " in " + file.getName());
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupt entry " + entry.name + " in " + file.getName(), e);
+        } finally {
+            inflater.end();
+        }
+        return data;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    private List<Entry> readCentralDirectory() throws IOException {
+        // the end record is at the very end, only followed by a comment of at most 65535 bytes
+        long size = channel.size();
+        int tailLength = (int) Math.min(size, END_OF_CENTRAL_DIRECTORY_SIZE + 0xFFFF);
+        ByteBuffer tail = readAt(size - tailLength, tailLength);
+        int end = -1;
+        for (int i = tailLength - END_OF_CENTRAL_DIRECTORY_SIZE; i >= 0; i--) {
+            if (tail.getInt(i) == END_OF_CENTRAL_DIRECTORY) {
+                end = i;
+                break;
+            }
+        }
+        if (end == -1) throw new IOException("Not a jar file: " + file.getName());
+
+        long count = tail.getShort(end + 10) & 0xFFFF;
+        long directorySize = tail.getInt(end + 12) & 0xFFFFFFFFL;
+        long directoryOffset = tail.getInt(end + 16) & 0xFFFFFFFFL;
+        // the locator of the zip64 end record sits right before the classic one
+        if (end >= ZIP64_LOCATOR_SIZE && tail.getInt(end - ZIP64_LOCATOR_SIZE) == ZIP64_LOCATOR) {
+            ByteBuffer zip64End = readAt(tail.getLong(end - ZIP64_LOCATOR_SIZE + 8), 56);
+            if (zip64End.getInt(0) != ZIP64_END_OF_CENTRAL_DIRECTORY) {
+                throw new IOException("Invalid zip64 end of central directory in " + file.getName());
+            }
+            count = zip64End.getLong(32);
+            directorySize = zip64End.getLong(40);
+            directoryOffset = zip64End.getLong(48);
+        }
+        if (count > Integer.MAX_VALUE || directorySize > Integer.MAX_VALUE) {
+            throw new IOException("Central directory of " + file.getName() + " is too large");
+        }
+
+        ByteBuffer directory = readAt(directoryOffset, (int) directorySize);
+        List<Entry> entries = new ArrayList<>((int) count);
+        int position = 0;
+        for (int i = 0; i < count; i++) {
+            if (directory.getInt(position) != CENTRAL_HEADER) {
+                throw new IOException("Invalid central directory in " + file.getName());
+            }
+            Entry entry = new Entry();
+            int flags = directory.getShort(position + 8) & 0xFFFF;
+            if ((flags & 1) != 0) throw new IOException("Encrypted jars are not supported: " + file.getName());
+            entry.method = directory.getShort(position + 10) & 0xFFFF;
+            entry.dosTime = (directory.getShort(position + 12) & 0xFFFF) | (long) (directory.getShort(position + 14) & 0xFFFF) << 16;
+            entry.crc = directory.getInt(position + 16) & 0xFFFFFFFFL;
+            entry.compressedSize = directory.getInt(position + 20) & 0xFFFFFFFFL;
+            entry.size = directory.getInt(position + 24) & 0xFFFFFFFFL;
+            int nameLength = directory.getShort(position + 28) & 0xFFFF;
+            int extraLength = directory.getShort(position + 30) & 0xFFFF;
+            int commentLength = directory.getShort(position + 32) & 0xFFFF;
+            entry.localHeaderOffset = directory.getInt(position + 42) & 0xFFFFFFFFL;
+
+            byte[] name = new byte[nameLength];
+            directory.position(position + 46);
+            directory.get(name);
+            entry.name = new String(name, StandardCharsets.UTF_8);
+            readZip64Extra(directory, position + 46 + nameLength, extraLength, entry);
+
+            entries.add(entry);
+            position += 46 + nameLength + extraLength + commentLength;
+        }
+        return entries;
+    }
+
+    /**
+     * Replaces the sizes and offset that don't fit the central header with the ones of its zip64 extra field.
+     */
+    private void readZip64Extra(ByteBuffer directory, int position, int length, Entry entry) throws IOException {
+        if (entry.size != ZIP64_MAGIC && entry.compressedSize != ZIP64_MAGIC && entry.localHeaderOffset != ZIP64_MAGIC) return;
+        for (int end = position + length; position + 4 <= end; ) {
+            int id = directory.getShort(position) & 0xFFFF;
+            int size = directory.getShort(position + 2) & 0xFFFF;
+            if (id == ZIP64_EXTRA) {
+                // only the values that didn't fit are there, in this order
+                int field = position + 4;
+                if (entry.size == ZIP64_MAGIC) {
+                    entry.size = directory.getLong(field);
+                    field += 8;
+                }
+                if (entry.compressedSize == ZIP64_MAGIC) {
+                    entry.compressedSize = directory.getLong(field);
+                    field += 8;
+                }
+                if (entry.localHeaderOffset == ZIP64_MAGIC) {
+                    entry.localHeaderOffset = directory.getLong(field);
+                }
+                return;
+            }
+            position += 4 + size;
+        }
+        throw new IOException("Missing zip64 extra field for " + entry.name + " in " + file.getName());
+    }
+
+    private ByteBuffer readAt(long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer, offset + buffer.position()) == -1) {
+                throw new EOFException("Unexpected end of " + file.getName());
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    /**
+     * An entry as described by the central directory of the jar.
+     */
+    public static class Entry {
+        private String name;
+        private int method;
+        private long dosTime;
+        private long crc;
+        private long size;
+        private long compressedSize;
+        private long localHeaderOffset;
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isDirectory() {
+            return name.endsWith("/");
+        }
+
+        public int getMethod() {
+            return method;
+        }
+
+        /**
+         * @return The modification time in the MS-DOS format zip files use
+         */
+        public long getDosTime() {
+            return dosTime;
+        }
+
+        public long getCrc() {
+            return crc;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getCompressedSize() {
+            return compressedSize;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package io.github.spigotcvn.remapper.util;
+
+import org.objectweb.asm.ClassReader;
+import org.objectweb.asm.ClassVisitor;
+import org.objectweb.asm.FieldVisitor;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+import org.objectweb.asm.commons.ClassRemapper;
+import org.objectweb.asm.commons.Remapper;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+/**
+ * Collects every class a jar refers to, from supertypes and descriptors to signatures and constants.
+ */
+public class ReferenceCollector {
+    // the remapper only descends into fields and methods the visitor it wraps visits
+    private static final ClassVisitor VISITOR = new ClassVisitor(Opcodes.ASM9) {
+        @Override
+        public FieldVisitor visitField(int access, String name, String descriptor, String signature, Object value) {
+            return new FieldVisitor(Opcodes.ASM9) {};
+        }
+
+        @Override
+        public MethodVisitor visitMethod(int access, String name, String descriptor, String signature, String[] exceptions) {
+            return new MethodVisitor(Opcodes.ASM9) {};
+        }
+    };
+
+    public static Set<String> collect(File jarFile) throws IOException {
+        Set<String> references = new HashSet<>();
+        Remapper recorder = new Remapper() {
+            @Override
+            public String map(String internalName) {
+                references.add(internalName);
+                return internalName;
+            }
+        };
+
+        try (JarFile jar = new JarFile(jarFile)) {
+            Enumeration<JarEntry> entries = jar.entries();
+            while (entries.hasMoreElements()) {
+                JarEntry entry = entries.nextElement();
+                if (entry.isDirectory() || !entry.getName().endsWith(".class")
+                        || entry.getName().endsWith("module-info.class")) continue;
+
+                try (InputStream is = jar.getInputStream(entry)) {
+                    new ClassReader(JarUtil.readAllBytes(is)).accept(
+                            new ClassRemapper(VISITOR, recorder),
+                            ClassReader.SKIP_FRAMES
+                    );
+                }
+            }
+        }
+        return references;
+    }
+}
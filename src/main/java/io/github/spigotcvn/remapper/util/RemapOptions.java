@@ -0,0 +1,73 @@
+package io.github.spigotcvn.remapper.util;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The optional parts of a remap, everything left unset is simply not used.
+ */
+public class RemapOptions {
+    private File classCacheDir;
+    private File hierarchyIndexDir;
+    private List<File> classpathJars = Collections.emptyList();
+    private MappingStore mappingStore = new MappingStore();
+    private StageReport report = new StageReport();
+
+    /**
+     * @return The directory remapped classes are cached in, or null to remap every class
+     */
+    public File getClassCacheDir() {
+        return classCacheDir;
+    }
+
+    public void setClassCacheDir(File classCacheDir) {
+        this.classCacheDir = classCacheDir;
+    }
+
+    /**
+     * @return The directory the class hierarchy indexes of server jars are kept in,
+     *         or null to read the whole server jar as classpath and load all of the mappings
+     */
+    public File getHierarchyIndexDir() {
+        return hierarchyIndexDir;
+    }
+
+    public void setHierarchyIndexDir(File hierarchyIndexDir) {
+        this.hierarchyIndexDir = hierarchyIndexDir;
+    }
+
+    /**
+     * @return The jars read as classpath next to the server jar, like the classes copied instead of remapped,
+     *         so the remapped classes still resolve what they inherit from them
+     */
+    public List<File> getClasspathJars() {
+        return classpathJars;
+    }
+
+    public void setClasspathJars(List<File> classpathJars) {
+        this.classpathJars = classpathJars;
+    }
+
+    /**
+     * @return The store parsed mappings and indexes are kept in, by default one that only lives as long as these options
+     */
+    public MappingStore getMappingStore() {
+        return mappingStore;
+    }
+
+    public void setMappingStore(MappingStore mappingStore) {
+        this.mappingStore = mappingStore;
+    }
+
+    /**
+     * @return The report every remap hop is recorded in
+     */
+    public StageReport getReport() {
+        return report;
+    }
+
+    public void setReport(StageReport report) {
+        this.report = report;
+    }
+}
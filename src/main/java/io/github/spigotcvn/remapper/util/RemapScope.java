@@ -0,0 +1,160 @@
+package io.github.spigotcvn.remapper.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Decides which packages of a jar go through the remapper, everything else, like shaded libraries
+ * that never touch minecraft classes, is copied to the result as it is stored.
+ * <p>
+ * Packages are matched by prefix, a package is remapped if it's included (or nothing is included)
+ * and not excluded. Files under META-INF always go through the remapper, except for versioned classes.
+ * Classes in the scope that don't refer to any mapped namespace are copied as well,
+ * see {@link MappedReferenceFilter}.
+ */
+public class RemapScope {
+    private static final String VERSIONS = "META-INF/versions/";
+
+    private final List<String> includes;
+    private final List<String> excludes;
+    private final List<String> mappedNamespaces;
+
+    /**
+     * @param includes The package prefixes to remap, e.g. {@code com.example.plugin}, all packages if empty
+     * @param excludes The package prefixes to copy as they are, e.g. {@code com.example.plugin.libs}
+     */
+    public RemapScope(Collection<String> includes, Collection<String> excludes) {
+        this(includes, excludes, Collections.emptyList());
+    }
+
+    /**
+     * @param includes         The package prefixes to remap, e.g. {@code com.example.plugin}, all packages if empty
+     * @param excludes         The package prefixes to copy as they are, e.g. {@code com.example.plugin.libs}
+     * @param mappedNamespaces The namespaces the mappings cover, classes referring to none of them are copied too,
+     *                         see {@link MappedReferenceFilter#MAPPED_NAMESPACES}. Nothing is filtered if empty.
+     */
+    public RemapScope(Collection<String> includes, Collection<String> excludes, Collection<String> mappedNamespaces) {
+        this.includes = normalize(includes);
+        this.excludes = normalize(excludes);
+        this.mappedNamespaces = new ArrayList<>(mappedNamespaces);
+    }
+
+    private static List<String> normalize(Collection<String> packages) {
+        List<String> normalized = new ArrayList<>(packages.size());
+        for (String pkg : packages) {
+            String prefix = pkg.trim().replace('.', '/');
+            if (prefix.isEmpty()) continue;
+            normalized.add(prefix.endsWith("/") ? prefix : prefix + "/");
+        }
+        return normalized;
+    }
+
+    /**
+     * @return Whether every entry is remapped
+     */
+    public boolean isEmpty() {
+        return includes.isEmpty() && excludes.isEmpty() && mappedNamespaces.isEmpty();
+    }
+
+    /**
+     * @param entryName The name of a jar entry
+     * @return Whether the entry goes through the remapper
+     */
+    public boolean contains(String entryName) {
+        String name = entryName;
+        if (name.startsWith(VERSIONS)) {
+            // META-INF/versions/<version>/<class>
+            int slash = name.indexOf('/', VERSIONS.length());
+            if (slash == -1) return true;
+            name = name.substring(slash + 1);
+        } else if (name.startsWith("META-INF/") || name.endsWith("/")) {
+            return true;
+        }
+
+        boolean included = includes.isEmpty();
+        for (String include : includes) {
+            if (name.startsWith(include)) {
+                included = true;
+                break;
+            }
+        }
+        if (!included) return false;
+        for (String exclude : excludes) {
+            if (name.startsWith(exclude)) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Splits a jar into the entries that are remapped and the ones that are only copied.
+     * @param jarFile     The jar to split
+     * @param scopedJar   The jar to write the entries to remap to
+     * @param copiedJar   The jar to write the entries to copy to
+     * @return How many entries were put in the copied jar
+     * @throws IOException If an error occurs while reading or writing the jars
+     */
+    public int split(File jarFile, File scopedJar, File copiedJar) throws IOException {
+        int copied = 0;
+        try (RawJarReader reader = new RawJarReader(jarFile);
+             ParallelJarWriter scoped = new ParallelJarWriter(scopedJar);
+             ParallelJarWriter copies = new ParallelJarWriter(copiedJar)) {
+            Set<String> unmapped = mappedNamespaces.isEmpty() ? Collections.emptySet() : findUnmapped(reader);
+            for (RawJarReader.Entry entry : reader.getEntries()) {
+                if (contains(entry.getName()) && !unmapped.contains(entry.getName())) {
+                    scoped.putRawEntry(entry, reader.readRaw(entry));
+                } else {
+                    copies.putRawEntry(entry, reader.readRaw(entry));
+                    copied++;
+                }
+            }
+            scoped.finish();
+            copies.finish();
+        }
+        return copied;
+    }
+
+    private Set<String> findUnmapped(RawJarReader reader) throws IOException {
+        MappedReferenceFilter filter = new MappedReferenceFilter(mappedNamespaces);
+        for (RawJarReader.Entry entry : reader.getEntries()) {
+            String name = entry.getName();
+            if (entry.isDirectory() || !name.endsWith(".class") || name.endsWith("module-info.class")
+                    || !contains(name)) continue;
+            filter.add(name, reader.read(entry));
+        }
+        return filter.getUnmappedEntries();
+    }
+
+    /**
+     * Adds the copied entries back to a remapped jar, without inflating either of them.
+     * @param remappedJar The remapped jar, it's replaced by the merged one
+     * @param copiedJar   The jar with the copied entries, see {@link #split(File, File, File)}
+     * @throws IOException If an error occurs while reading or writing the jars
+     */
+    public static void merge(File remappedJar, File copiedJar) throws IOException {
+        File mergedJar = new File(remappedJar.getParentFile(), remappedJar.getName() + ".merged");
+        try (RawJarReader remapped = new RawJarReader(remappedJar);
+             RawJarReader copied = new RawJarReader(copiedJar);
+             ParallelJarWriter writer = new ParallelJarWriter(mergedJar)) {
+            Set<String> names = new HashSet<>();
+            for (RawJarReader.Entry entry : remapped.getEntries()) {
+                names.add(entry.getName());
+                writer.putRawEntry(entry, remapped.readRaw(entry));
+            }
+            for (RawJarReader.Entry entry : copied.getEntries()) {
+                if (names.add(entry.getName())) {
+                    writer.putRawEntry(entry, copied.readRaw(entry));
+                }
+            }
+            writer.finish();
+        }
+        Files.move(mergedJar.toPath(), remappedJar.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+}
@@ -1,10 +1,9 @@
 package io.github.spigotcvn.remapper.util;
 
-import io.github.spigotcvn.remapper.CVNRemapper;
+import net.fabricmc.tinyremapper.IMappingProvider;
 import net.fabricmc.tinyremapper.NonClassCopyMode;
 import net.fabricmc.tinyremapper.OutputConsumerPath;
 import net.fabricmc.tinyremapper.TinyRemapper;
-import net.fabricmc.tinyremapper.TinyUtils;
 import net.md_5.specialsource.JarMapping;
 import net.md_5.specialsource.JarRemapper;
 
@@ -12,7 +11,14 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 
 public class RemapUtil {
     /**
@@ -23,18 +29,28 @@ public class RemapUtil {
      * @throws IOException   If an error occurs while reading the jar file
      */
     public static void remapJarToObfuscated(File mappings, File jarFile, File resultJarFile) throws IOException {
+        remapJarToObfuscated(mappings, jarFile, resultJarFile, new RemapOptions());
+    }
+
+    /**
+     * Same as {@link #remapJarToObfuscated(File, File, File)}, taking the mappings from the store of the given options.
+     */
+    public static void remapJarToObfuscated(File mappings, File jarFile, File resultJarFile,
+                                            RemapOptions options) throws IOException {
         System.out.println("Remapping jar to obfuscated mappings...");
 
-        // here we'll utilize SpecialSource
-        JarMapping jarMapping = new JarMapping();
-        BufferedReader reader = new BufferedReader(new FileReader(mappings));
-        jarMapping.loadMappings(reader, null, null, true);
-        reader.close();
+        try (StageReport.Stage stage = options.getReport().start("remap-obfuscated")) {
+            stage.read(mappings).readJar(jarFile);
 
-        System.out.println("Loaded mappings from: " + mappings.getAbsolutePath());
+            // here we'll utilize SpecialSource
+            JarMapping jarMapping = options.getMappingStore().getJarMapping(mappings, true);
 
-        JarRemapper remapper = new JarRemapper(jarMapping);
-        remapper.remapJar(net.md_5.specialsource.Jar.init(jarFile), resultJarFile);
+            System.out.println("Loaded mappings from: " + mappings.getAbsolutePath());
+
+            JarRemapper remapper = new JarRemapper(jarMapping);
+            remapper.remapJar(net.md_5.specialsource.Jar.init(jarFile), resultJarFile);
+            stage.wrote(resultJarFile);
+        }
 
         System.out.println("Remapped jar to obfuscated mappings to: " + resultJarFile.getAbsolutePath());
     }
@@ -47,28 +63,38 @@ public class RemapUtil {
      * @throws IOException If an error occurs while reading the jar file
      */
     public static void remapJarToSpigotClass(File mappings, File jarFile, File resultJarFile) throws IOException {
+        remapJarToSpigotClass(mappings, jarFile, resultJarFile, new RemapOptions());
+    }
+
+    /**
+     * Same as {@link #remapJarToSpigotClass(File, File, File)}, taking the mappings from the store of the given options.
+     */
+    public static void remapJarToSpigotClass(File mappings, File jarFile, File resultJarFile,
+                                             RemapOptions options) throws IOException {
         System.out.println("Remapping jar to spigot mappings...");
 
-        JarMapping jarMapping = new JarMapping();
-        BufferedReader reader = new BufferedReader(new FileReader(mappings));
-        jarMapping.loadMappings(reader, null, null, false);
-        reader.close();
+        try (StageReport.Stage stage = options.getReport().start("remap-spigot")) {
+            stage.read(mappings).readJar(jarFile);
 
-        System.out.println("Loaded mappings from: " + mappings.getAbsolutePath());
+            JarMapping jarMapping = options.getMappingStore().getJarMapping(mappings, false);
 
-        JarRemapper remapper = new JarRemapper(jarMapping);
-        remapper.remapJar(net.md_5.specialsource.Jar.init(jarFile), resultJarFile);
+            System.out.println("Loaded mappings from: " + mappings.getAbsolutePath());
+
+            JarRemapper remapper = new JarRemapper(jarMapping);
+            remapper.remapJar(net.md_5.specialsource.Jar.init(jarFile), resultJarFile);
+            stage.wrote(resultJarFile);
+        }
 
         System.out.println("Remapped jar to spigot mappings to: " + resultJarFile.getAbsolutePath());
     }
 
-    public static void remapJarToSpigotFull(File classMappings, File memberMappings, File jarFile,
-                                            File resultFile) throws IOException {
+    public static void remapJarToSpigotFull(File classMappings, File memberMappings, String minecraftVersion,
+                                            File jarFile, File resultFile) throws IOException {
         MapUtil mapUtil = new MapUtil();
         mapUtil.loadBuk(classMappings);
 
         File combinedMappings = new File("build" + File.separator + "mappings",
-                "mappings-" + CVNRemapper.MINECRAFT_VERSION + "-spigot-combined.tiny");
+                "mappings-" + minecraftVersion + "-spigot-combined.tiny");
         mapUtil.makeCombinedMaps(combinedMappings, memberMappings);
 
         remapJarToSpigotFull(combinedMappings, jarFile, resultFile);
@@ -93,24 +119,143 @@ public class RemapUtil {
 
     /**
      * Takes in a spigot mapped jar and remaps it to the intermediary mappings.
-     * @param jarFile       The jar file to remap
-     * @param resultJarFile The file to save the remapped jar to
+     * @param classpath        The spigot mapped server jar, used to resolve inheritance
+     * @param mappingFile      The final intermediary mappings file
+     * @param minecraftVersion The minecraft version the mappings are for
+     * @param jarFile          The jar file to remap
+     * @param resultJarFile    The file to save the remapped jar to
+     * @param options          The optional caches to use, and the report to record the remap in
      */
-    public static void remapJarToIntermediary(Path classpath, File jarFile, File resultJarFile) {
+    public static void remapJarToIntermediary(Path classpath, File mappingFile, String minecraftVersion,
+                                              File jarFile, File resultJarFile, RemapOptions options) {
         System.out.println("Remapping jar to intermediary mappings...");
 
-        File mappingFile = new File(
-                "build" + File.separator + "mappings",
-                "mappings-" + CVNRemapper.MINECRAFT_VERSION + "-intermediary.tiny"
-        );
         if(!mappingFile.exists()) {
             throw new RuntimeException("Could not find the mappings file\n" +
-                    "Please make sure you have ran the downloadMappings task");
+                    "Please make sure you have ran the generateMappings task");
         }
-        System.out.println("Loaded mappings from: " + mappingFile.getAbsolutePath());
+        try (StageReport.Stage stage = options.getReport().start("remap-intermediary")) {
+            stage.read(mappingFile).readJar(jarFile);
+
+            IMappingProvider mappings = options.getMappingStore().getTinyMappings(mappingFile, minecraftVersion, "spigot", "intermediary");
+            String mappingKey = options.getMappingStore().getTinyMappingsKey(mappingFile, minecraftVersion, "spigot", "intermediary");
+            System.out.println("Loaded mappings from: " + mappingFile.getAbsolutePath());
+
+            remapJarWithTiny(mappings, mappingKey, classpath, jarFile, resultJarFile, options);
+            stage.wrote(resultJarFile);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        System.out.println("Finished remapping jar to intermediary mappings to: " + resultJarFile.getAbsolutePath());
+    }
+
+    /**
+     * Takes in a mojang mapped jar and remaps it to the intermediary mappings in a single pass,
+     * using mappings composed from the mojang, spigot and intermediary ones.
+     * @param composer      The composer with all three mappings loaded
+     * @param classpath     The mojang mapped server jar, used to resolve inheritance
+     * @param jarFile       The jar file to remap
+     * @param resultJarFile The file to save the remapped jar to
+     * @param spigotJarFile The file to save the spigot mapped jar to, or null if it isn't needed
+     * @param options       The optional caches to use, and the report to record the remap in
+     */
+    public static void remapJarComposed(MappingComposer composer, Path classpath, File jarFile,
+                                        File resultJarFile, File spigotJarFile, RemapOptions options) {
+        System.out.println("Remapping jar to intermediary mappings in a single pass...");
+        try (StageReport.Stage stage = options.getReport().start("remap-composed-intermediary")) {
+            stage.readJar(jarFile);
+            remapJarWithTiny(composer.toIntermediary(), composer.getKey() + "-intermediary",
+                    classpath, jarFile, resultJarFile, options);
+            stage.wrote(resultJarFile);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+        System.out.println("Remapped jar to intermediary mappings to: " + resultJarFile.getAbsolutePath());
+
+        if(spigotJarFile != null) {
+            try (StageReport.Stage stage = options.getReport().start("remap-composed-spigot")) {
+                stage.readJar(jarFile);
+                remapJarWithTiny(composer.toSpigot(), composer.getKey() + "-spigot",
+                        classpath, jarFile, spigotJarFile, options);
+                stage.wrote(spigotJarFile);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+            System.out.println("Remapped jar to spigot mappings to: " + spigotJarFile.getAbsolutePath());
+        }
+    }
+
+    private static void remapJarWithTiny(IMappingProvider mappings, String mappingKey, Path classpath,
+                                         File jarFile, File resultJarFile, RemapOptions options) {
+        File slicedClasspath = new File(resultJarFile.getParentFile(), resultJarFile.getName() + ".classpath.jar");
+        try {
+            Path remapClasspath = classpath;
+            if(options.getHierarchyIndexDir() != null) {
+                // only the part of the server hierarchy the jar refers to is read by the remapper
+                Set<String> references = ReferenceCollector.collect(jarFile);
+                for (File classpathJar : options.getClasspathJars()) {
+                    references.addAll(ReferenceCollector.collect(classpathJar));
+                }
+                Set<String> hierarchy = options.getMappingStore().getHierarchyIndex(classpath.toFile(), options.getHierarchyIndexDir())
+                        .writeClassPath(references, slicedClasspath);
+                remapClasspath = slicedClasspath.toPath();
+
+                // and only the mappings of that part are loaded
+                Set<String> sliceClasses = new HashSet<>(references);
+                sliceClasses.addAll(hierarchy);
+                mappings = new MappingSlice(mappings, sliceClasses);
+            }
+
+            if(options.getClassCacheDir() != null) {
+                // the classpath takes part in resolving inherited members, so it is part of the key too
+                File classpathFile = classpath.toFile();
+                String key = mappingKey + "-" + classpathFile.getName() + "-" + classpathFile.length() + "-" + classpathFile.lastModified();
+                if (!options.getClasspathJars().isEmpty()) key += "-" + hashEntries(options.getClasspathJars());
+                if(new IncrementalRemapper(options.getClassCacheDir(), key).remap(mappings, toClasspath(remapClasspath, options), jarFile, resultJarFile)) {
+                    return;
+                }
+                System.out.println("Multi-release jar detected, remapping every class...");
+            }
+
+            remapJarWithTiny(mappings, toClasspath(remapClasspath, options), jarFile, resultJarFile);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        } finally {
+            slicedClasspath.delete();
+        }
+    }
+
+    private static Path[] toClasspath(Path serverJar, RemapOptions options) {
+        List<Path> classpath = new ArrayList<>();
+        classpath.add(serverJar);
+        for (File classpathJar : options.getClasspathJars()) {
+            classpath.add(classpathJar.toPath());
+        }
+        return classpath.toArray(new Path[0]);
+    }
+
+    /**
+     * @return A hash of the names and checksums of the entries of the jars, read from their central directories
+     */
+    private static String hashEntries(List<File> jars) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            for (File jar : jars) {
+                try (RawJarReader reader = new RawJarReader(jar)) {
+                    for (RawJarReader.Entry entry : reader.getEntries()) {
+                        digest.update((entry.getName() + ":" + entry.getCrc() + "\n").getBytes(StandardCharsets.UTF_8));
+                    }
+                }
+            }
+            return Util.toHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
 
+    private static void remapJarWithTiny(IMappingProvider mappings, Path[] classpath, File jarFile, File resultJarFile) {
         TinyRemapper remapper = TinyRemapper.newRemapper()
-                .withMappings(TinyUtils.createTinyMappingProvider(mappingFile.toPath(), "spigot", "intermediary"))
+                .withMappings(mappings)
                 .ignoreConflicts(true)
                 .build();
 
@@ -119,7 +264,7 @@ public class RemapUtil {
 
             System.out.println("Reading inputs from " + jarFile.getAbsolutePath() + "...");
             remapper.readInputs(jarFile.toPath());
-            System.out.println("Reading classpath from " + classpath.toAbsolutePath() + "...");
+            System.out.println("Reading classpath from " + classpath[0].toAbsolutePath() + "...");
             remapper.readClassPath(classpath);
 
             System.out.println("Remapping jar...");
@@ -128,7 +273,6 @@ public class RemapUtil {
             throw new RuntimeException(e);
         } finally {
             remapper.finish();
-            System.out.println("Finished remapping jar to intermediary mappings to: " + resultJarFile.getAbsolutePath());
         }
     }
 }
@@ -0,0 +1,194 @@
+package io.github.spigotcvn.remapper.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Records how long every stage of the remap pipeline took and how much it read, wrote and allocated,
+ * and writes it all to a JSON report.
+ * <p>
+ * CPU time and allocated bytes are those of the thread running the stage, work done on other threads,
+ * like the parallel compression of jar entries, is only part of the wall time.
+ */
+public class StageReport {
+    private static final ThreadMXBean THREADS = ManagementFactory.getThreadMXBean();
+
+    private final Map<String, String> properties = new LinkedHashMap<>();
+    private final List<Stage> stages = new ArrayList<>();
+
+    public StageReport() {
+        // set from the jar manifest, so reports of different plugin versions can be told apart
+        Package pluginPackage = StageReport.class.getPackage();
+        property("pluginVersion", pluginPackage == null ? null : pluginPackage.getImplementationVersion());
+    }
+
+    /**
+     * Adds a property that describes the whole report, like the task or minecraft version.
+     */
+    public StageReport property(String name, String value) {
+        properties.put(name, value);
+        return this;
+    }
+
+    /**
+     * Starts measuring a stage, it is added to the report once it's closed.
+     * @param name The name of the stage
+     */
+    public Stage start(String name) {
+        return new Stage(name);
+    }
+
+    public synchronized List<Stage> getStages() {
+        return new ArrayList<>(stages);
+    }
+
+    private synchronized void add(Stage stage) {
+        stages.add(stage);
+    }
+
+    /**
+     * Writes the report as JSON, replacing the previous one.
+     * @param reportFile The file to write the report to
+     * @throws IOException If an error occurs while writing the file
+     */
+    public void write(File reportFile) throws IOException {
+        StringBuilder json = new StringBuilder("{\n");
+        for (Map.Entry<String, String> property : properties.entrySet()) {
+            json.append("  ").append(quote(property.getKey())).append(": ").append(quote(property.getValue())).append(",\n");
+        }
+        json.append("  \"stages\": [");
+        List<Stage> stages = getStages();
+        for (int i = 0; i < stages.size(); i++) {
+            Stage stage = stages.get(i);
+            json.append(i == 0 ? "\n" : ",\n")
+                    .append("    {\"name\": ").append(quote(stage.name))
+                    .append(", \"wallTimeNanos\": ").append(stage.wallTime)
+                    .append(", \"cpuTimeNanos\": ").append(stage.cpuTime)
+                    .append(", \"allocatedBytes\": ").append(stage.allocatedBytes)
+                    .append(", \"bytesRead\": ").append(stage.bytesRead)
+                    .append(", \"bytesWritten\": ").append(stage.bytesWritten)
+                    .append(", \"classes\": ").append(stage.classes)
+                    .append('}');
+        }
+        json.append(stages.isEmpty() ? "]\n}\n" : "\n  ]\n}\n");
+
+        reportFile.getParentFile().mkdirs();
+        File tmpFile = new File(reportFile.getParentFile(), reportFile.getName() + ".tmp");
+        try (Writer writer = Files.newBufferedWriter(tmpFile.toPath(), StandardCharsets.UTF_8)) {
+            writer.write(json.toString());
+        }
+        Files.move(tmpFile.toPath(), reportFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private static String quote(String value) {
+        if (value == null) return "null";
+        StringBuilder quoted = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '"' || c == '\\') {
+                quoted.append('\\').append(c);
+            } else if (c < ' ') {
+                quoted.append(String.format("\\u%04x", (int) c));
+            } else {
+                quoted.append(c);
+            }
+        }
+        return quoted.append('"').toString();
+    }
+
+    private static long cpuTime() {
+        return THREADS.isCurrentThreadCpuTimeSupported() ? THREADS.getCurrentThreadCpuTime() : 0;
+    }
+
+    private static long allocatedBytes() {
+        if (THREADS instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) THREADS;
+            if (threads.isThreadAllocatedMemorySupported() && threads.isThreadAllocatedMemoryEnabled()) {
+                return threads.getThreadAllocatedBytes(Thread.currentThread().getId());
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * A single stage, measured from its creation until it's closed.
+     */
+    public class Stage implements AutoCloseable {
+        private final String name;
+        private final long startWallTime = System.nanoTime();
+        private final long startCpuTime = cpuTime();
+        private final long startAllocatedBytes = allocatedBytes();
+
+        private long wallTime;
+        private long cpuTime;
+        private long allocatedBytes;
+        private long bytesRead;
+        private long bytesWritten;
+        private int classes;
+        private boolean closed;
+
+        private Stage(String name) {
+            this.name = name;
+        }
+
+        /**
+         * Counts the size of a file the stage reads, missing files are ignored.
+         */
+        public Stage read(File file) {
+            if (file != null && file.isFile()) bytesRead += file.length();
+            return this;
+        }
+
+        /**
+         * Counts the size of a jar the stage reads, together with the classes in it.
+         */
+        public Stage readJar(File jarFile) throws IOException {
+            read(jarFile);
+            // most of the jars are written during the build, so they are only counted, not fingerprinted
+            try (ZipFile zip = new ZipFile(jarFile)) {
+                Enumeration<? extends ZipEntry> entries = zip.entries();
+                while (entries.hasMoreElements()) {
+                    if (entries.nextElement().getName().endsWith(".class")) classes++;
+                }
+            }
+            return this;
+        }
+
+        /**
+         * Counts the size of a file the stage wrote, missing files are ignored.
+         */
+        public Stage wrote(File file) {
+            if (file != null && file.isFile()) bytesWritten += file.length();
+            return this;
+        }
+
+        public Stage classes(int classes) {
+            this.classes += classes;
+            return this;
+        }
+
+        @Override
+        public void close() {
+            if (closed) return;
+            closed = true;
+
+            wallTime = System.nanoTime() - startWallTime;
+            cpuTime = cpuTime() - startCpuTime;
+            allocatedBytes = allocatedBytes() - startAllocatedBytes;
+            add(this);
+        }
+    }
+}
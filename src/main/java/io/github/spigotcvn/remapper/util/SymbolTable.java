@@ -0,0 +1,342 @@
+package io.github.spigotcvn.remapper.util;
+
+import java.util.*;
+import java.util.function.IntUnaryOperator;
+
+/**
+ * Interns the names mappings are made of, so each of them is kept once and referred to by an int.
+ * <p>
+ * Class names are split at their last slash and both halves are interned on their own, so all
+ * classes of a package share the package name. Lookups between interned names go through
+ * {@link IntMap}s, which hold plain ints instead of boxed keys and values.
+ * <p>
+ * A table is filled from a single thread. Once filled, it may be read from several at the same time,
+ * as lookups don't change it.
+ */
+public class SymbolTable {
+    private String[] symbols = new String[1024];
+    private int symbolCount;
+    // open addressing, a slot holds the id + 1 of a symbol, or 0 if it's empty
+    private int[] symbolSlots = new int[2048];
+
+    private int[] classPackages = new int[1024];
+    private int[] classNames = new int[1024];
+    private int classCount;
+    private int[] classSlots = new int[2048];
+
+    /**
+     * @return The id of the given symbol, which is added if it's not in the table yet
+     */
+    public int symbol(String name) {
+        return lookupSymbol(name, true);
+    }
+
+    /**
+     * @return The id of the given symbol, or -1 if it's not in the table
+     */
+    public int findSymbol(String name) {
+        return lookupSymbol(name, false);
+    }
+
+    public String getSymbol(int id) {
+        return symbols[id];
+    }
+
+    /**
+     * @param internalName The internal name of a class, e.g. {@code net/minecraft/server/Entity}
+     * @return The id of the class, which is added if it's not in the table yet
+     */
+    public int classId(String internalName) {
+        int slash = internalName.lastIndexOf('/');
+        int pkg = lookupSymbol(slash == -1 ? "" : internalName.substring(0, slash), true);
+        return lookupClass(pkg, lookupSymbol(internalName.substring(slash + 1), true), true);
+    }
+
+    /**
+     * @return The id of the given class, or -1 if it's not in the table
+     */
+    public int findClass(String internalName) {
+        int slash = internalName.lastIndexOf('/');
+        int pkg = lookupSymbol(slash == -1 ? "" : internalName.substring(0, slash), false);
+        if (pkg == -1) return -1;
+        int name = lookupSymbol(internalName.substring(slash + 1), false);
+        return name == -1 ? -1 : lookupClass(pkg, name, false);
+    }
+
+    /**
+     * @return The internal name of the class with the given id
+     */
+    public String getClassName(int id) {
+        String pkg = symbols[classPackages[id]];
+        String name = symbols[classNames[id]];
+        return pkg.isEmpty() ? name : pkg + "/" + name;
+    }
+
+    /**
+     * @return The rank of every symbol when sorted by {@link String#compareTo(String)}, indexed by id
+     */
+    public int[] rankSymbols() {
+        String[] names = Arrays.copyOf(symbols, symbolCount);
+        return rank(symbolCount, (a, b) -> names[a].compareTo(names[b]));
+    }
+
+    /**
+     * @return The rank of every class when sorted by internal name, indexed by id
+     */
+    public int[] rankClasses() {
+        String[] names = new String[classCount];
+        for (int i = 0; i < classCount; i++) {
+            names[i] = getClassName(i);
+        }
+        return rank(classCount, (a, b) -> names[a].compareTo(names[b]));
+    }
+
+    private static int[] rank(int count, Comparator<Integer> order) {
+        Integer[] sorted = new Integer[count];
+        for (int i = 0; i < count; i++) {
+            sorted[i] = i;
+        }
+        Arrays.parallelSort(sorted, order);
+        int[] ranks = new int[count];
+        for (int i = 0; i < count; i++) {
+            ranks[sorted[i]] = i;
+        }
+        return ranks;
+    }
+
+    private int lookupSymbol(String name, boolean add) {
+        int mask = symbolSlots.length - 1;
+        for (int slot = mix(name.hashCode()) & mask; ; slot = (slot + 1) & mask) {
+            int id = symbolSlots[slot] - 1;
+            if (id == -1) {
+                if (!add) return -1;
+                id = symbolCount++;
+                if (id == symbols.length) symbols = Arrays.copyOf(symbols, id * 2);
+                symbols[id] = name;
+                symbolSlots[slot] = id + 1;
+                if (symbolCount * 2 > symbolSlots.length) {
+                    symbolSlots = rehash(symbolSlots, symbolCount, i -> symbols[i].hashCode());
+                }
+                return id;
+            }
+            if (symbols[id].equals(name)) return id;
+        }
+    }
+
+    private int lookupClass(int pkg, int name, boolean add) {
+        int mask = classSlots.length - 1;
+        for (int slot = mix(pkg * 31 + name) & mask; ; slot = (slot + 1) & mask) {
+            int id = classSlots[slot] - 1;
+            if (id == -1) {
+                if (!add) return -1;
+                id = classCount++;
+                if (id == classNames.length) {
+                    classPackages = Arrays.copyOf(classPackages, id * 2);
+                    classNames = Arrays.copyOf(classNames, id * 2);
+                }
+                classPackages[id] = pkg;
+                classNames[id] = name;
+                classSlots[slot] = id + 1;
+                if (classCount * 2 > classSlots.length) {
+                    classSlots = rehash(classSlots, classCount, i -> classPackages[i] * 31 + classNames[i]);
+                }
+                return id;
+            }
+            if (classPackages[id] == pkg && classNames[id] == name) return id;
+        }
+    }
+
+    private static int[] rehash(int[] slots, int count, IntUnaryOperator hash) {
+        int[] rehashed = new int[slots.length * 2];
+        int mask = rehashed.length - 1;
+        for (int id = 0; id < count; id++) {
+            int slot = mix(hash.applyAsInt(id)) & mask;
+            while (rehashed[slot] != 0) slot = (slot + 1) & mask;
+            rehashed[slot] = id + 1;
+        }
+        return rehashed;
+    }
+
+    private static int mix(int hash) {
+        // spreads the high bits, string hashes of short names barely differ in the low ones
+        hash *= 0x9E3779B9;
+        return hash ^ (hash >>> 16);
+    }
+
+    /**
+     * An open addressing map from int to int, where -1 stands for no value.
+     */
+    public static class IntMap {
+        private int[] keys = new int[64];
+        private int[] values = new int[64];
+        private int size;
+
+        public IntMap() {
+            Arrays.fill(keys, -1);
+        }
+
+        /**
+         * @return The value of the key, or -1 if it has none
+         */
+        public int get(int key) {
+            int mask = keys.length - 1;
+            for (int slot = mix(key) & mask; keys[slot] != -1; slot = (slot + 1) & mask) {
+                if (keys[slot] == key) return values[slot];
+            }
+            return -1;
+        }
+
+        /**
+         * @param key   The key, must not be negative
+         * @param value The value, -1 to remove it
+         */
+        public void put(int key, int value) {
+            int mask = keys.length - 1;
+            int slot = mix(key) & mask;
+            while (keys[slot] != -1 && keys[slot] != key) slot = (slot + 1) & mask;
+            if (keys[slot] == -1) {
+                keys[slot] = key;
+                if (++size * 2 > keys.length) {
+                    values[slot] = value;
+                    grow();
+                    return;
+                }
+            }
+            values[slot] = value;
+        }
+
+        private void grow() {
+            int[] oldKeys = keys;
+            int[] oldValues = values;
+            keys = new int[oldKeys.length * 2];
+            values = new int[oldValues.length * 2];
+            Arrays.fill(keys, -1);
+            int mask = keys.length - 1;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == -1) continue;
+                int slot = mix(oldKeys[i]) & mask;
+                while (keys[slot] != -1) slot = (slot + 1) & mask;
+                keys[slot] = oldKeys[i];
+                values[slot] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * A one to one map between classes of a symbol table, iterated in insertion order like Guava's HashBiMap.
+     */
+    public static class ClassMap {
+        private final SymbolTable table;
+        // both map a class id to the index of its pair
+        private final IntMap forward = new IntMap();
+        private final IntMap inverse = new IntMap();
+        private int[] froms = new int[1024];
+        private int[] tos = new int[1024];
+        private int size;
+
+        public ClassMap(SymbolTable table) {
+            this.table = table;
+        }
+
+        /**
+         * Maps a class to another, replacing what it was mapped to before.
+         * @throws IllegalArgumentException If another class is already mapped to the target
+         */
+        public void put(String from, String to) {
+            int fromId = table.classId(from);
+            int toId = table.classId(to);
+            int index = inverse.get(toId);
+            if (index != -1) {
+                if (froms[index] == fromId) return;
+                throw new IllegalArgumentException("value already present: " + to);
+            }
+
+            index = forward.get(fromId);
+            if (index == -1) {
+                index = size++;
+                if (index == froms.length) {
+                    froms = Arrays.copyOf(froms, index * 2);
+                    tos = Arrays.copyOf(tos, index * 2);
+                }
+                froms[index] = fromId;
+                forward.put(fromId, index);
+            } else {
+                inverse.put(tos[index], -1);
+            }
+            tos[index] = toId;
+            inverse.put(toId, index);
+        }
+
+        /**
+         * @return A read only view of the map by internal names
+         */
+        public Map<String, String> asMap() {
+            return new View(false);
+        }
+
+        /**
+         * @return A read only view of the map from the targets back to the classes mapped to them
+         */
+        public Map<String, String> inverse() {
+            return new View(true);
+        }
+
+        private class View extends AbstractMap<String, String> {
+            private final boolean inverted;
+
+            private View(boolean inverted) {
+                this.inverted = inverted;
+            }
+
+            @Override
+            public String get(Object key) {
+                if (!(key instanceof String)) return null;
+                int id = table.findClass((String) key);
+                if (id == -1) return null;
+                int index = (inverted ? inverse : forward).get(id);
+                return index == -1 ? null : table.getClassName(inverted ? froms[index] : tos[index]);
+            }
+
+            @Override
+            public boolean containsKey(Object key) {
+                return get(key) != null;
+            }
+
+            @Override
+            public int size() {
+                return size;
+            }
+
+            @Override
+            public Set<Entry<String, String>> entrySet() {
+                return new AbstractSet<Entry<String, String>>() {
+                    @Override
+                    public Iterator<Entry<String, String>> iterator() {
+                        return new Iterator<Entry<String, String>>() {
+                            private int index;
+
+                            @Override
+                            public boolean hasNext() {
+                                return index < size;
+                            }
+
+                            @Override
+                            public Entry<String, String> next() {
+                                if (!hasNext()) throw new NoSuchElementException();
+                                String from = table.getClassName(froms[index]);
+                                String to = table.getClassName(tos[index]);
+                                index++;
+                                return inverted ? new SimpleImmutableEntry<>(to, from) : new SimpleImmutableEntry<>(from, to);
+                            }
+                        };
+                    }
+
+                    @Override
+                    public int size() {
+                        return size;
+                    }
+                };
+            }
+        }
+    }
+}
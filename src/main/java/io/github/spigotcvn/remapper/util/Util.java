@@ -1,8 +1,9 @@
 package io.github.spigotcvn.remapper.util;
 
-import javax.tools.JavaCompiler;
-import javax.tools.ToolProvider;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.ByteBuffer;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
@@ -10,27 +11,6 @@ import java.util.UUID;
 import java.util.function.Consumer;
 
 public class Util {
-    public static void compileJavaFile(String javaFilePath, String outputDir, int javaVersion, String... classpath) {
-        String classpathString;
-        // on windows the classpath separator is ; and on unix it's :
-        if (System.getProperty("os.name").toLowerCase().contains("win")) {
-            classpathString = String.join(";", classpath);
-        } else {
-            classpathString = String.join(":", classpath);
-        }
-        System.out.println("Using classpath: " + classpathString);
-
-        JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
-        int compilationResult = compiler.run(null, null, null,
-                "-target", String.valueOf(javaVersion), "-source", String.valueOf(javaVersion), // java version
-                "-d", outputDir, "-cp", classpathString,  // classpath and output
-                javaFilePath // java file to compile
-        );
-        if (compilationResult != 0) {
-            throw new RuntimeException("Compilation failed for " + javaFilePath);
-        }
-    }
-
     public static void iterateOverFiles(Consumer<File> consumer, File dir) {
         for (File file : dir.listFiles()) {
             if (file.isDirectory()) {
@@ -57,4 +37,26 @@ public class Util {
             throw new RuntimeException(e);
         }
     }
+
+    public static String hashFile(File file) throws IOException {
+        try (InputStream is = new FileInputStream(file)) {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            byte[] buffer = new byte[65536];
+            int bytesRead;
+            while ((bytesRead = is.read(buffer)) != -1) {
+                md.update(buffer, 0, bytesRead);
+            }
+            return toHex(md.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    public static String toHex(byte[] bytes) {
+        StringBuilder builder = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            builder.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return builder.toString();
+    }
 }
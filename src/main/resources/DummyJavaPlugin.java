@@ -1,8 +0,0 @@
-import org.bukkit.plugin.java.JavaPlugin;
-
-public final class DummyJavaPlugin extends JavaPlugin {
-    @Override
-    public void onEnable() {
-        getServer().getPluginManager().disablePlugin(this);
-    }
-}
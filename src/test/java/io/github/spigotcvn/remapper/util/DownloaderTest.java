@@ -0,0 +1,174 @@
+package io.github.spigotcvn.remapper.util;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Runs the downloader against a local stand-in for the mappings server.
+ */
+class DownloaderTest {
+    private static final long DAY = TimeUnit.DAYS.toMillis(1);
+
+    @TempDir
+    File tempDir;
+
+    private HttpServer server;
+    private URL url;
+    private File target;
+
+    private volatile byte[] content = randomBytes(1, 200_000);
+    private volatile String etag = "\"v1\"";
+    // the next full response is cut off halfway through
+    private volatile boolean cutNextResponse;
+    // the next partial response starts at the beginning instead of where it was asked to
+    private volatile boolean wrongRangeStart;
+    private final List<Request> requests = new ArrayList<>();
+
+    @BeforeEach
+    void startServer() throws IOException {
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 0);
+        server.createContext("/mappings.tiny", this::handle);
+        server.start();
+        url = new URL("http://127.0.0.1:" + server.getAddress().getPort() + "/mappings.tiny");
+        target = new File(tempDir, "mappings.tiny");
+    }
+
+    @AfterEach
+    void stopServer() {
+        server.stop(0);
+    }
+
+    @Test
+    void downloadsOnceAndSkipsFreshFiles() throws IOException {
+        assertTrue(Downloader.download(url, target, DAY));
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        assertEquals(1, requests.size());
+
+        assertFalse(Downloader.download(url, target, DAY));
+        assertEquals(1, requests.size(), "a fresh file is used without asking the server");
+    }
+
+    @Test
+    void revalidatesWithTheETag() throws IOException {
+        Downloader.download(url, target, DAY);
+
+        assertFalse(Downloader.download(url, target, 0));
+        assertEquals(2, requests.size());
+        assertEquals(etag, requests.get(1).ifNoneMatch);
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        assertTrue(Downloader.isFresh(target, DAY), "a 304 counts as a check");
+    }
+
+    @Test
+    void picksUpUpstreamChanges() throws IOException {
+        Downloader.download(url, target, DAY);
+
+        content = randomBytes(2, 150_000);
+        etag = "\"v2\"";
+        assertTrue(Downloader.download(url, target, 0));
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    void resumesTransfersThatWereCutShort() throws IOException {
+        cutNextResponse = true;
+
+        assertTrue(Downloader.download(url, target, DAY));
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        assertEquals(2, requests.size());
+        assertEquals("bytes=" + content.length / 2 + "-", requests.get(1).range);
+        assertEquals(etag, requests.get(1).ifRange);
+        assertFalse(new File(tempDir, "mappings.tiny.part").exists());
+    }
+
+    @Test
+    void startsOverWhenAResumeStartsElsewhere() throws IOException {
+        cutNextResponse = true;
+        wrongRangeStart = true;
+
+        assertTrue(Downloader.download(url, target, DAY));
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        assertEquals(3, requests.size());
+        assertNull(requests.get(2).range);
+    }
+
+    @Test
+    void downloadsFilesCorruptedOnDiskAgain() throws IOException {
+        Downloader.download(url, target, DAY);
+
+        byte[] corrupted = content.clone();
+        corrupted[1000] ^= 0x55;
+        Files.write(target.toPath(), corrupted);
+
+        assertTrue(Downloader.download(url, target, 0));
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        assertNull(requests.get(1).ifNoneMatch, "a corrupted file is not revalidated");
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        Request request = new Request();
+        request.range = exchange.getRequestHeaders().getFirst("Range");
+        request.ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+        request.ifNoneMatch = exchange.getRequestHeaders().getFirst("If-None-Match");
+        synchronized (requests) {
+            requests.add(request);
+        }
+
+        byte[] body = content;
+        exchange.getResponseHeaders().set("ETag", etag);
+        try (OutputStream os = exchange.getResponseBody()) {
+            if (etag.equals(request.ifNoneMatch)) {
+                exchange.sendResponseHeaders(304, -1);
+            } else if (request.range != null && etag.equals(request.ifRange)) {
+                int start = Integer.parseInt(request.range.substring("bytes=".length(), request.range.length() - 1));
+                if (wrongRangeStart) {
+                    wrongRangeStart = false;
+                    start = 0;
+                }
+                exchange.getResponseHeaders().set("Content-Range",
+                        "bytes " + start + "-" + (body.length - 1) + "/" + body.length);
+                exchange.sendResponseHeaders(206, body.length - start);
+                os.write(body, start, body.length - start);
+            } else if (cutNextResponse) {
+                cutNextResponse = false;
+                exchange.sendResponseHeaders(200, body.length);
+                os.write(body, 0, body.length / 2);
+                os.flush();
+                // failing the exchange drops the connection, the client is left with half of the announced length
+                throw new IllegalStateException("cut short");
+            } else {
+                exchange.sendResponseHeaders(200, body.length);
+                os.write(body);
+            }
+        }
+    }
+
+    private static byte[] randomBytes(long seed, int length) {
+        byte[] bytes = new byte[length];
+        new Random(seed).nextBytes(bytes);
+        return bytes;
+    }
+
+    private static class Request {
+        private String range;
+        private String ifRange;
+        private String ifNoneMatch;
+    }
+}
@@ -0,0 +1,323 @@
+package io.github.spigotcvn.remapper.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+/**
+ * Checks that the generated mappings are byte for byte the ones the BuildTools implementation writes.
+ */
+class MapUtilTest {
+    private static final String[] PRIMITIVES = {"int", "void", "boolean", "long", "byte[]", "double[][]"};
+    // enough lines for several shards
+    private static final int CLASSES = 3000;
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    void writesTheSameFieldMaps() throws IOException {
+        compare(false);
+    }
+
+    @Test
+    void writesTheSameMemberMaps() throws IOException {
+        compare(true);
+    }
+
+    private void compare(boolean includeMethods) throws IOException {
+        File mojang = new File(tempDir, "mojang.txt");
+        File classes = new File(tempDir, "classes.csrg");
+        writeMappings(mojang, classes);
+
+        MapUtil mapUtil = new MapUtil();
+        mapUtil.loadBuk(classes);
+        File members = new File(tempDir, "members.csrg");
+        mapUtil.makeFieldMaps(mojang, members, includeMethods);
+        File combined = new File(tempDir, "combined.csrg");
+        mapUtil.makeCombinedMaps(combined, members);
+
+        BuildToolsMapUtil expected = new BuildToolsMapUtil();
+        expected.loadBuk(classes);
+        File expectedMembers = new File(tempDir, "expected-members.csrg");
+        expected.makeFieldMaps(mojang, expectedMembers, includeMethods);
+        File expectedCombined = new File(tempDir, "expected-combined.csrg");
+        expected.makeCombinedMaps(expectedCombined, expectedMembers);
+
+        assertArrayEquals(Files.readAllBytes(expectedMembers.toPath()), Files.readAllBytes(members.toPath()));
+        assertArrayEquals(Files.readAllBytes(expectedCombined.toPath()), Files.readAllBytes(combined.toPath()));
+    }
+
+    /**
+     * Writes mojang mappings with fields, methods, inner classes and line numbers, and spigot class mappings
+     * that leave some of the classes unmapped.
+     */
+    private static void writeMappings(File mojang, File classes) throws IOException {
+        Random random = new Random(1);
+        try (PrintWriter moj = new PrintWriter(mojang, "UTF-8");
+             PrintWriter buk = new PrintWriter(classes, "UTF-8")) {
+            moj.println("# comment");
+            buk.println("# header line");
+            for (int i = 0; i < CLASSES; i++) {
+                String mojName = "net.minecraft.pkg" + (i % 20) + ".Cls" + i + (i % 7 == 0 ? "$Inner" : "");
+                String obfName = "c" + i + (i % 7 == 0 ? "$a" : "");
+                if (i % 3 != 0 && i % 7 != 0) buk.println(obfName + " net/minecraft/server/B" + i);
+                moj.println(mojName + " -> " + obfName + ":");
+
+                for (int j = 0; j < 8; j++) {
+                    String type = j % 2 == 0 ? PRIMITIVES[random.nextInt(PRIMITIVES.length)] : randomClass(random);
+                    if (j < 3) {
+                        moj.println("    " + type + " field" + j + (j == 2 ? "$x" : "") + " -> " + (j == 1 ? "if" : "f" + j));
+                        continue;
+                    }
+                    StringBuilder args = new StringBuilder();
+                    for (int k = random.nextInt(3), q = 0; q < k; q++) {
+                        if (q > 0) args.append(',');
+                        args.append(random.nextBoolean() ? PRIMITIVES[random.nextInt(PRIMITIVES.length)] : randomClass(random) + "[]");
+                    }
+                    String lines = random.nextBoolean() ? random.nextInt(90) + ":" + random.nextInt(90) + ":" : "";
+                    String name = j == 7 ? "<init>" : "method" + j;
+                    String obf = j == 7 ? "<init>" : j == 6 ? "method6" : "m" + j;
+                    moj.println("    " + lines + type + " " + name + "(" + args + ") -> " + obf);
+                }
+            }
+        }
+    }
+
+    private static String randomClass(Random random) {
+        return "net.minecraft.pkg" + random.nextInt(20) + ".Cls" + random.nextInt(CLASSES);
+    }
+
+    /**
+     * The MapUtil of BuildTools as it was copied, with plain maps instead of Guava's BiMap.
+     */
+    private static class BuildToolsMapUtil {
+        private static final Pattern MEMBER_PATTERN = Pattern.compile("(?:\\d+:\\d+:)?(.*?) (.*?) -> (.*)");
+
+        private final List<String> header = new ArrayList<>();
+        private final Map<String, String> obf2Buk = new LinkedHashMap<>();
+        private final Map<String, String> moj2Obf = new LinkedHashMap<>();
+
+        void loadBuk(File bukClasses) throws IOException {
+            for (String line : Files.readAllLines(bukClasses.toPath())) {
+                if (line.startsWith("#")) {
+                    header.add(line);
+                    continue;
+                }
+
+                String[] split = line.split(" ");
+                if (split.length == 2) {
+                    obf2Buk.put(split[0], split[1]);
+                }
+            }
+        }
+
+        void makeFieldMaps(File mojIn, File fields, boolean includeMethods) throws IOException {
+            if (includeMethods) {
+                for (String line : Files.readAllLines(mojIn.toPath())) {
+                    if (line.startsWith("#")) {
+                        continue;
+                    }
+
+                    if (line.endsWith(":")) {
+                        String[] parts = line.split(" -> ");
+                        String orig = parts[0].replace('.', '/');
+                        String obf = parts[1].substring(0, parts[1].length() - 1).replace('.', '/');
+
+                        moj2Obf.put(orig, obf);
+                    }
+                }
+            }
+
+            List<String> outFields = new ArrayList<>(header);
+
+            String currentClass = null;
+            for (String line : Files.readAllLines(mojIn.toPath())) {
+                if (line.startsWith("#")) {
+                    continue;
+                }
+                line = line.trim();
+
+                if (line.endsWith(":")) {
+                    String[] parts = line.split(" -> ");
+                    String obf = parts[1].substring(0, parts[1].length() - 1).replace('.', '/');
+                    currentClass = deobfClass(obf, obf2Buk);
+                } else if (currentClass != null) {
+                    Matcher matcher = MEMBER_PATTERN.matcher(line);
+                    matcher.find();
+
+                    String obf = matcher.group(3);
+                    String nameDesc = matcher.group(2);
+                    if (!nameDesc.contains("(")) {
+                        if (nameDesc.equals(obf) || nameDesc.contains("$")) {
+                            continue;
+                        }
+                        if (!includeMethods && (obf.equals("if") || obf.equals("do"))) {
+                            obf += "_";
+                        }
+
+                        outFields.add(currentClass + " " + obf + " " + nameDesc);
+                    } else if (includeMethods) {
+                        String sig = csrgDesc(moj2Obf, obf2Buk, nameDesc.substring(nameDesc.indexOf('(')), matcher.group(1));
+                        String mojName = nameDesc.substring(0, nameDesc.indexOf('('));
+
+                        if (obf.equals(mojName) || mojName.contains("$") || obf.equals("<init>") || obf.equals("<clinit>")) {
+                            continue;
+                        }
+                        outFields.add(currentClass + " " + obf + " " + sig + " " + mojName);
+                    }
+                }
+            }
+
+            Collections.sort(outFields);
+            Files.write(fields.toPath(), outFields);
+        }
+
+        void makeCombinedMaps(File out, File... members) throws IOException {
+            List<String> combined = new ArrayList<>(header);
+            Map<String, String> buk2Obf = new LinkedHashMap<>();
+            for (Map.Entry<String, String> map : obf2Buk.entrySet()) {
+                combined.add(map.getKey() + " " + map.getValue());
+                buk2Obf.put(map.getValue(), map.getKey());
+            }
+
+            for (File member : members) {
+                for (String line : Files.readAllLines(member.toPath())) {
+                    if (line.startsWith("#")) {
+                        continue;
+                    }
+                    line = line.trim();
+
+                    String[] split = line.split(" ");
+                    if (split.length == 3) {
+                        combined.add(deobfClass(split[0], buk2Obf) + " " + split[1] + " " + split[2]);
+                    } else if (split.length == 4) {
+                        combined.add(deobfClass(split[0], buk2Obf) + " " + split[1] + " " + toObf(split[2], buk2Obf) + " " + split[3]);
+                    }
+                }
+            }
+
+            Files.write(out.toPath(), combined);
+        }
+
+        private static String deobfClass(String obf, Map<String, String> classMaps) {
+            String buk = classMaps.get(obf);
+            if (buk == null) {
+                StringBuilder inner = new StringBuilder();
+
+                while (buk == null) {
+                    int idx = obf.lastIndexOf('$');
+                    if (idx == -1) {
+                        return obf;
+                    }
+                    inner.insert(0, obf.substring(idx));
+                    obf = obf.substring(0, idx);
+
+                    buk = classMaps.get(obf);
+                }
+
+                buk += inner;
+            }
+            return buk;
+        }
+
+        private static String toObf(String desc, Map<String, String> map) {
+            desc = desc.substring(1);
+            StringBuilder out = new StringBuilder("(");
+            if (desc.charAt(0) == ')') {
+                desc = desc.substring(1);
+                out.append(')');
+            }
+            while (desc.length() > 0) {
+                desc = obfType(desc, map, out);
+                if (desc.length() > 0 && desc.charAt(0) == ')') {
+                    desc = desc.substring(1);
+                    out.append(')');
+                }
+            }
+            return out.toString();
+        }
+
+        private static String obfType(String desc, Map<String, String> map, StringBuilder out) {
+            int size = 1;
+            switch (desc.charAt(0)) {
+                case 'B':
+                case 'C':
+                case 'D':
+                case 'F':
+                case 'I':
+                case 'J':
+                case 'S':
+                case 'Z':
+                case 'V':
+                    out.append(desc.charAt(0));
+                    break;
+                case '[':
+                    out.append("[");
+                    return obfType(desc.substring(1), map, out);
+                case 'L':
+                    String type = desc.substring(1, desc.indexOf(";"));
+                    size += type.length() + 1;
+                    out.append("L").append(map.containsKey(type) ? map.get(type) : type).append(";");
+            }
+            return desc.substring(size);
+        }
+
+        private static String csrgDesc(Map<String, String> first, Map<String, String> second, String args, String ret) {
+            String[] parts = args.substring(1, args.length() - 1).split(",");
+            StringBuilder desc = new StringBuilder("(");
+            for (String part : parts) {
+                if (part.isEmpty()) {
+                    continue;
+                }
+                desc.append(toJVMType(first, second, part));
+            }
+            desc.append(")");
+            desc.append(toJVMType(first, second, ret));
+            return desc.toString();
+        }
+
+        private static String toJVMType(Map<String, String> first, Map<String, String> second, String type) {
+            switch (type) {
+                case "byte":
+                    return "B";
+                case "char":
+                    return "C";
+                case "double":
+                    return "D";
+                case "float":
+                    return "F";
+                case "int":
+                    return "I";
+                case "long":
+                    return "J";
+                case "short":
+                    return "S";
+                case "boolean":
+                    return "Z";
+                case "void":
+                    return "V";
+                default:
+                    if (type.endsWith("[]")) {
+                        return "[" + toJVMType(first, second, type.substring(0, type.length() - 2));
+                    }
+                    String clazzType = type.replace('.', '/');
+                    return "L" + deobfClass(deobfClass(clazzType, first), second) + ";";
+            }
+        }
+    }
+}
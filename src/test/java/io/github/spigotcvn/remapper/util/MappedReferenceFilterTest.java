@@ -0,0 +1,65 @@
+package io.github.spigotcvn.remapper.util;
+
+import org.junit.jupiter.api.Test;
+import org.objectweb.asm.ClassWriter;
+import org.objectweb.asm.MethodVisitor;
+import org.objectweb.asm.Opcodes;
+
+import java.util.Arrays;
+import java.util.HashSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class MappedReferenceFilterTest {
+    @Test
+    void copiesOnlyClassesUnrelatedToMappedOnes() {
+        MappedReferenceFilter filter = new MappedReferenceFilter(MappedReferenceFilter.MAPPED_NAMESPACES);
+        // the listener overrides a method the server calls, so its supertypes are renamed with it
+        filter.add("com/example/Listener.class", writeClass("com/example/Listener", "com/example/BaseListener",
+                new String[]{"com/example/Callback"}, "net/minecraft/world/entity/Entity"));
+        filter.add("com/example/BaseListener.class", writeClass("com/example/BaseListener", "java/lang/Object",
+                new String[0], null));
+        filter.add("com/example/Callback.class", writeInterface("com/example/Callback"));
+        // using a mapped class of the jar is enough to be remapped
+        filter.add("com/example/Plugin.class", writeClass("com/example/Plugin", "java/lang/Object",
+                new String[0], "com/example/Listener"));
+        filter.add("com/example/util/Strings.class", writeClass("com/example/util/Strings", "java/lang/Object",
+                new String[0], "java/lang/String"));
+        filter.add("META-INF/versions/9/com/example/util/Strings.class", writeClass("com/example/util/Strings",
+                "java/lang/Object", new String[0], null));
+
+        assertEquals(new HashSet<>(Arrays.asList("com/example/util/Strings.class",
+                "META-INF/versions/9/com/example/util/Strings.class")), filter.getUnmappedEntries());
+    }
+
+    @Test
+    void remapsClassesItCantRead() {
+        MappedReferenceFilter filter = new MappedReferenceFilter(MappedReferenceFilter.MAPPED_NAMESPACES);
+        filter.add("com/example/Broken.class", new byte[]{1, 2, 3});
+        assertTrue(filter.getUnmappedEntries().isEmpty());
+    }
+
+    private static byte[] writeClass(String name, String superName, String[] interfaces, String uses) {
+        ClassWriter writer = new ClassWriter(0);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, name, null, superName, interfaces);
+        if (uses != null) {
+            MethodVisitor method = writer.visitMethod(Opcodes.ACC_PUBLIC | Opcodes.ACC_STATIC, "use", "()V", null, null);
+            method.visitCode();
+            method.visitTypeInsn(Opcodes.NEW, uses);
+            method.visitInsn(Opcodes.POP);
+            method.visitInsn(Opcodes.RETURN);
+            method.visitMaxs(1, 0);
+            method.visitEnd();
+        }
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+
+    private static byte[] writeInterface(String name) {
+        ClassWriter writer = new ClassWriter(0);
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC | Opcodes.ACC_INTERFACE | Opcodes.ACC_ABSTRACT,
+                name, null, "java/lang/Object", null);
+        writer.visitEnd();
+        return writer.toByteArray();
+    }
+}
@@ -0,0 +1,153 @@
+package io.github.spigotcvn.remapper.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RawJarReaderTest {
+    private static final byte[] TEXT = repeat("stored as it is\n", 200);
+    private static final byte[] CLASS = repeat("deflated and followed by a data descriptor\n", 200);
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    void readsStoredAndDeflatedEntries() throws IOException {
+        File jar = writeJar();
+
+        try (RawJarReader reader = new RawJarReader(jar)) {
+            List<RawJarReader.Entry> entries = reader.getEntries();
+            assertEquals(3, entries.size());
+
+            assertEquals("com/example/", entries.get(0).getName());
+            assertTrue(entries.get(0).isDirectory());
+
+            RawJarReader.Entry text = entries.get(1);
+            assertEquals(ZipEntry.STORED, text.getMethod());
+            assertEquals(TEXT.length, text.getSize());
+            assertArrayEquals(TEXT, reader.read(text));
+            assertArrayEquals(TEXT, reader.readRaw(text));
+
+            // the sizes of an entry with a data descriptor are only known from the central directory
+            RawJarReader.Entry clazz = entries.get(2);
+            assertEquals(ZipEntry.DEFLATED, clazz.getMethod());
+            assertEquals(CLASS.length, clazz.getSize());
+            assertTrue(clazz.getCompressedSize() < CLASS.length);
+            assertEquals(crc(CLASS), clazz.getCrc());
+            assertArrayEquals(CLASS, reader.read(clazz));
+        }
+    }
+
+    @Test
+    void copiesEntriesWithoutRecompressing() throws IOException {
+        File jar = writeJar();
+        File copy = new File(tempDir, "copy.jar");
+
+        try (RawJarReader reader = new RawJarReader(jar);
+             ParallelJarWriter writer = new ParallelJarWriter(copy)) {
+            for (RawJarReader.Entry entry : reader.getEntries()) {
+                writer.putRawEntry(entry, reader.readRaw(entry));
+            }
+            writer.finish();
+        }
+
+        try (RawJarReader original = new RawJarReader(jar);
+             RawJarReader copied = new RawJarReader(copy)) {
+            for (int i = 0; i < original.getEntries().size(); i++) {
+                RawJarReader.Entry entry = original.getEntries().get(i);
+                RawJarReader.Entry copiedEntry = copied.getEntries().get(i);
+                assertEquals(entry.getName(), copiedEntry.getName());
+                assertEquals(entry.getMethod(), copiedEntry.getMethod());
+                assertEquals(entry.getDosTime(), copiedEntry.getDosTime());
+                assertArrayEquals(original.readRaw(entry), copied.readRaw(copiedEntry));
+            }
+        }
+        try (ZipFile zip = new ZipFile(copy)) {
+            assertArrayEquals(TEXT, readAll(zip, "com/example/readme.txt"));
+            assertArrayEquals(CLASS, readAll(zip, "com/example/Main.class"));
+        }
+    }
+
+    @Test
+    void readsZip64Jars() throws IOException {
+        File jar = new File(tempDir, "large.jar");
+        int count = 70000;
+        try (ParallelJarWriter writer = new ParallelJarWriter(jar)) {
+            for (int i = 0; i < count; i++) {
+                writer.putEntry("entries/" + i + ".txt", String.valueOf(i).getBytes(StandardCharsets.UTF_8), 0);
+            }
+            writer.finish();
+        }
+
+        try (RawJarReader reader = new RawJarReader(jar)) {
+            List<RawJarReader.Entry> entries = reader.getEntries();
+            assertEquals(count, entries.size());
+            RawJarReader.Entry last = entries.get(count - 1);
+            assertEquals("entries/" + (count - 1) + ".txt", last.getName());
+            assertArrayEquals(String.valueOf(count - 1).getBytes(StandardCharsets.UTF_8), reader.read(last));
+        }
+    }
+
+    private File writeJar() throws IOException {
+        File jar = new File(tempDir, "input.jar");
+        try (ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar))) {
+            out.putNextEntry(new ZipEntry("com/example/"));
+            out.closeEntry();
+
+            ZipEntry text = new ZipEntry("com/example/readme.txt");
+            text.setMethod(ZipEntry.STORED);
+            text.setSize(TEXT.length);
+            text.setCrc(crc(TEXT));
+            out.putNextEntry(text);
+            out.write(TEXT);
+            out.closeEntry();
+
+            // without sizes up front, the stream writes them in a data descriptor after the data
+            out.putNextEntry(new ZipEntry("com/example/Main.class"));
+            out.write(CLASS);
+            out.closeEntry();
+        }
+        return jar;
+    }
+
+    private static byte[] readAll(ZipFile zip, String name) throws IOException {
+        ZipEntry entry = zip.getEntry(name);
+        assertNotNull(entry);
+        try (InputStream is = zip.getInputStream(entry)) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = is.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    private static long crc(byte[] data) {
+        CRC32 crc = new CRC32();
+        crc.update(data);
+        return crc.getValue();
+    }
+
+    private static byte[] repeat(String text, int times) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < times; i++) {
+            builder.append(text);
+        }
+        return builder.toString().getBytes(StandardCharsets.UTF_8);
+    }
+}
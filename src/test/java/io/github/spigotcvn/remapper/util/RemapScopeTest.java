@@ -0,0 +1,127 @@
+package io.github.spigotcvn.remapper.util;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.Attributes;
+import java.util.jar.JarFile;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class RemapScopeTest {
+    private static final RemapScope SCOPE = new RemapScope(
+            Collections.singletonList("com.example.plugin"),
+            Collections.singletonList("com.example.plugin.libs"));
+
+    @TempDir
+    File tempDir;
+
+    @Test
+    void matchesVersionedClassesLikeTheirBase() {
+        assertTrue(SCOPE.contains("com/example/plugin/Main.class"));
+        assertFalse(SCOPE.contains("com/example/plugin/libs/Lib.class"));
+        assertFalse(SCOPE.contains("org/other/Thing.class"));
+        assertTrue(SCOPE.contains("META-INF/MANIFEST.MF"));
+        assertTrue(SCOPE.contains("META-INF/versions/9/com/example/plugin/Main.class"));
+        assertFalse(SCOPE.contains("META-INF/versions/9/com/example/plugin/libs/Lib.class"));
+        assertTrue(new RemapScope(Collections.emptyList(), Collections.emptyList()).isEmpty());
+    }
+
+    @Test
+    void splitsAndMergesMultiReleaseJars() throws IOException {
+        Map<String, byte[]> stored = new LinkedHashMap<>();
+        stored.put("com/example/plugin/libs/Lib.class", bytes("stored lib"));
+        stored.put("META-INF/versions/9/com/example/plugin/libs/Lib.class", bytes("stored versioned lib"));
+        Map<String, byte[]> deflated = new LinkedHashMap<>();
+        deflated.put("com/example/plugin/Main.class", bytes("deflated main"));
+        deflated.put("META-INF/versions/9/com/example/plugin/Main.class", bytes("deflated versioned main"));
+        deflated.put("org/other/Thing.class", bytes("deflated thing"));
+        File input = writeJar(stored, deflated);
+
+        File scoped = new File(tempDir, "scoped.jar");
+        File copied = new File(tempDir, "copied.jar");
+        assertEquals(3, SCOPE.split(input, scoped, copied));
+
+        try (JarFile jar = new JarFile(scoped)) {
+            assertNotNull(jar.getEntry(JarFile.MANIFEST_NAME));
+            assertNotNull(jar.getEntry("com/example/plugin/Main.class"));
+            assertNotNull(jar.getEntry("META-INF/versions/9/com/example/plugin/Main.class"));
+            assertNull(jar.getEntry("com/example/plugin/libs/Lib.class"));
+        }
+        try (JarFile jar = new JarFile(copied)) {
+            assertNotNull(jar.getEntry("com/example/plugin/libs/Lib.class"));
+            assertNotNull(jar.getEntry("META-INF/versions/9/com/example/plugin/libs/Lib.class"));
+            assertNotNull(jar.getEntry("org/other/Thing.class"));
+            assertNull(jar.getEntry("com/example/plugin/Main.class"));
+        }
+
+        // the remapper would replace the scoped jar, merging puts everything back as it was stored
+        RemapScope.merge(scoped, copied);
+        try (RawJarReader original = new RawJarReader(input);
+             RawJarReader merged = new RawJarReader(scoped)) {
+            assertEquals(original.getEntries().size(), merged.getEntries().size());
+            for (RawJarReader.Entry entry : original.getEntries()) {
+                RawJarReader.Entry mergedEntry = find(merged, entry.getName());
+                assertEquals(entry.getMethod(), mergedEntry.getMethod(), entry.getName());
+                assertEquals(entry.getCrc(), mergedEntry.getCrc(), entry.getName());
+                assertArrayEquals(original.readRaw(entry), merged.readRaw(mergedEntry), entry.getName());
+            }
+        }
+        try (JarFile jar = new JarFile(scoped)) {
+            assertEquals("true", jar.getManifest().getMainAttributes().getValue("Multi-Release"));
+        }
+    }
+
+    private File writeJar(Map<String, byte[]> stored, Map<String, byte[]> deflated) throws IOException {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().putValue("Multi-Release", "true");
+
+        File jar = new File(tempDir, "input.jar");
+        // the stream writes deflated entries with a data descriptor, as their sizes aren't known up front
+        try (JarOutputStream out = new JarOutputStream(new FileOutputStream(jar), manifest)) {
+            for (Map.Entry<String, byte[]> file : stored.entrySet()) {
+                ZipEntry entry = new ZipEntry(file.getKey());
+                entry.setMethod(ZipEntry.STORED);
+                entry.setSize(file.getValue().length);
+                CRC32 crc = new CRC32();
+                crc.update(file.getValue());
+                entry.setCrc(crc.getValue());
+                out.putNextEntry(entry);
+                out.write(file.getValue());
+                out.closeEntry();
+            }
+            for (Map.Entry<String, byte[]> file : deflated.entrySet()) {
+                out.putNextEntry(new ZipEntry(file.getKey()));
+                out.write(file.getValue());
+                out.closeEntry();
+            }
+        }
+        return jar;
+    }
+
+    private static RawJarReader.Entry find(RawJarReader reader, String name) {
+        for (RawJarReader.Entry entry : reader.getEntries()) {
+            if (entry.getName().equals(name)) return entry;
+        }
+        throw new AssertionError("Missing " + name);
+    }
+
+    private static byte[] bytes(String text) {
+        byte[] data = text.getBytes(StandardCharsets.UTF_8);
+        // long enough for deflating to make a difference
+        return Arrays.copyOf(data, data.length * 50);
+    }
+}